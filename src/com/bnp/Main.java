@@ -23,6 +23,12 @@ public class Main {
         // Define the searching count reporter
         ScoreReporter sr = new ScoreReporter(configFile, ss);
 
+        // Drop the stopwords and the blocked terms configured before counting
+        sr.installTermFilter();
+
+        // Count the phrases too, if configured
+        sr.installNGrams();
+
         // Simulate a search input
         ss.inputSearchTerm("Happy Birthday Happy");
         ss.inputSearchTerm("Happy Birthday Happy");
@@ -0,0 +1,734 @@
+package com.bnp.admin;
+
+import com.bnp.filter.TermFilter;
+import com.bnp.logging.LogFile;
+import com.bnp.scorereporter.ScoreReporter;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AdminServer class to control a running process through a text channel on the loopback address, e.g., by "nc 127.0.0.1 [port]"
+ * One selector thread accepts the connections, reads the command lines and writes the responses without blocking,
+ *  while each command runs on a worker thread and only reads the storage without locking it,
+ *  so the admin commands never stall the input, the scheduled reporting or each other.
+ * A command streams its response through a small queue per connection, and waits while the queue is full,
+ *  so a client not reading its response holds at most the queue, and is closed once it makes no progress for the timeout,
+ *  the same as an idle connection.
+ * At most MAX_CONNECTIONS are served at the same time. A connection beyond that may only send SHUTDOWN,
+ *  any other command is answered "ERR too many connections" and the connection closed.
+ *
+ * One command per line, answered by one line starting with "OK" or "ERR",
+ *  or by the lines of a list followed by a line "END", streamed as they are produced:
+ *   REPORT          report to the CSV file immediately
+ *   SNAPSHOT        list all the keywords and their scores in csv format
+ *   TOP [k]         list the k keywords of the highest scores
+ *   PHRASES [k]     list the k phrases of the highest scores
+ *   TRENDING [k]    list the k keywords of the highest time-decayed scores
+ *   EXISTS [word]   check if a keyword exists
+ *   RANK [word]     the rank of a keyword
+ *   STATS           the sizes of the storage
+ *   CLEAN [x]       remove all the keywords and the phrases of scores less than x
+ *   RELOAD          reload the lists of the term filter
+ *   SHUTDOWN        stop the reporting and the admin channel
+ *   QUIT            close this connection
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class AdminServer {
+
+    /**
+     * The maximum number of connections served at the same time, the others may only send SHUTDOWN
+     */
+    private static final int MAX_CONNECTIONS = 8;
+
+    /**
+     * The default time a connection may make no progress, reading nor writing, before being closed, in milliseconds
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The bytes of a response queued per connection, beyond which the command waits for the client to read them
+     */
+    private static final int MAX_QUEUED_BYTES = 64 * 1024;
+
+    /**
+     * The longest command line accepted, in bytes
+     */
+    private static final int MAX_LINE_BYTES = 8192;
+
+    /**
+     * The reporter to trigger the reports with
+     */
+    private final ScoreReporter sr;
+
+    /**
+     * The data storage of Boogle Search
+     */
+    private final SearchScorerSingleton ss;
+
+    /**
+     * The port to listen on, 0 to pick a free port
+     */
+    private final int port;
+
+    /**
+     * The time a connection may make no progress before being closed, in milliseconds
+     */
+    private final int idleTimeoutMillis;
+
+    /**
+     * Released when the SHUTDOWN command is received
+     */
+    private final CountDownLatch shutdown = new CountDownLatch(1);
+
+    /**
+     * The threads running the commands, at most one per connection
+     */
+    private final ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "admin-command");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread selectorThread;
+    private volatile boolean stopped = false;
+
+    /**
+     * The connections open, and the number of them within the limit, only used by the selector thread
+     */
+    private final Set<Session> sessions = new HashSet<>();
+    private int served = 0;
+
+    /**
+     * The connections with a response queued by a worker, to be written by the selector thread
+     */
+    private final ConcurrentLinkedQueue<Session> writable = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The buffer of the selector thread to read the command lines into
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+    /**
+     * One connection, locked on itself for the fields shared between the selector thread and the worker
+     */
+    private static class Session {
+        final SocketChannel channel;
+        final boolean overLimit;
+        SelectionKey key;
+
+        /**
+         * The bytes of the command line being read, only used by the selector thread
+         */
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        /**
+         * The command lines not run yet, and if a worker is running them
+         */
+        final ArrayDeque<String> commands = new ArrayDeque<>();
+        boolean running = false;
+
+        /**
+         * The response queued, and its number of bytes
+         */
+        final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        int queuedBytes = 0;
+
+        /**
+         * The time of the last progress, i.e., a line read, some bytes written, or a command finished
+         */
+        long lastProgress = System.currentTimeMillis();
+
+        boolean closeAfterOutput = false;
+        boolean closed = false;
+
+        Session(SocketChannel channel, boolean overLimit){
+            this.channel = channel;
+            this.overLimit = overLimit;
+        }
+    }
+
+    /**
+     * C'stor
+     *
+     * @param port the port to listen on, 0 to pick a free port
+     * @param sr the reporter to trigger the reports with
+     * @param ss the data storage of Boogle Search
+     */
+    public AdminServer(int port, ScoreReporter sr, SearchScorerSingleton ss){
+        this(port, sr, ss, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * C'stor
+     *
+     * @param port the port to listen on, 0 to pick a free port
+     * @param sr the reporter to trigger the reports with
+     * @param ss the data storage of Boogle Search
+     * @param idleTimeoutMillis the time a connection may make no progress, reading nor writing, before being closed, in milliseconds
+     */
+    public AdminServer(int port, ScoreReporter sr, SearchScorerSingleton ss, int idleTimeoutMillis){
+        this.port = port;
+        this.sr = sr;
+        this.ss = ss;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Start listening on the loopback address at background
+     *
+     * @return the port listened on
+     * @throws IOException if the port cannot be opened
+     */
+    public int start() throws IOException {
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        selectorThread = new Thread(this::selectLoop, "admin-server");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+
+        int localPort = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        LogFile.log(null, "info", "Admin channel is listening on port " + localPort);
+
+        return localPort;
+    }
+
+    /**
+     * Block the calling thread until the SHUTDOWN command is received
+     */
+    public void awaitShutdown(){
+        try {
+            shutdown.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop listening and close all the connections
+     */
+    public void stop(){
+        shutdown.countDown();
+        stopped = true;
+        if(selector != null){
+            selector.wakeup();
+        }
+
+        // Wait for the selector thread to close the connections and release the port
+        try {
+            if(selectorThread != null && selectorThread != Thread.currentThread()){
+                selectorThread.join(5000);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdownNow();
+    }
+
+    /**
+     * Accept, read and write the connections until stopped, closing the ones making no progress
+     */
+    private void selectLoop(){
+        try {
+            while(!stopped){
+                selector.select(Math.max(10, Math.min(1000, idleTimeoutMillis / 4)));
+
+                // Write the responses queued by the workers meanwhile
+                Session queued;
+                while((queued = writable.poll()) != null){
+                    if(queued.key.isValid()){
+                        write(queued);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+
+                    Session session = (Session) key.attachment();
+                    try {
+                        if(key.isReadable()){
+                            read(session);
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            write(session);
+                        }
+                    } catch (IOException ex) {
+                        // the client has gone away
+                        close(session);
+                    }
+                }
+
+                closeExpired();
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            if(!stopped) {
+                LogFile.log(ex, "warning", "Admin channel failed.");
+            }
+        } finally {
+            for (Session session : new ArrayList<>(sessions)) {
+                close(session);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ex) {
+                LogFile.log(ex, "warning", "Failed to close the admin channel.");
+            }
+        }
+    }
+
+    /**
+     * Accept the pending connections, marking the ones beyond the limit
+     */
+    private void accept(){
+        while(true){
+            try {
+                SocketChannel channel = server.accept();
+                if(channel == null){
+                    return;
+                }
+                channel.configureBlocking(false);
+
+                Session session = new Session(channel, served >= MAX_CONNECTIONS);
+                session.key = channel.register(selector, SelectionKey.OP_READ, session);
+                sessions.add(session);
+                if(!session.overLimit){
+                    ++served;
+                }
+            } catch (IOException ex) {
+                LogFile.log(ex, "warning", "Failed to accept an admin connection.");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the available bytes of a connection and hand over each complete command line
+     * The end of the input counts as a QUIT, after the commands received before it
+     */
+    private void read(Session session) throws IOException {
+
+        readBuffer.clear();
+        int n = session.channel.read(readBuffer);
+        if(n < 0){
+            session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+            submit(session, "QUIT");
+            return;
+        }
+        synchronized (session){
+            session.lastProgress = System.currentTimeMillis();
+        }
+
+        readBuffer.flip();
+        while(readBuffer.hasRemaining()){
+            byte b = readBuffer.get();
+            if(b == '\n'){
+                String line = new String(session.line.toByteArray(), StandardCharsets.UTF_8).trim();
+                session.line.reset();
+                if(!submit(session, line)){
+                    return;
+                }
+            } else if(session.line.size() >= MAX_LINE_BYTES){
+                respond(session, "ERR line too long");
+                return;
+            } else {
+                session.line.write(b);
+            }
+        }
+    }
+
+    /**
+     * Queue a command line of a connection, and start a worker to run it unless one is running already
+     *
+     * @return false if no more lines of the connection are read
+     */
+    private boolean submit(Session session, String line){
+
+        // Only the shutdown is served beyond the limit, so it's always reachable
+        if(session.overLimit){
+            if(line.equalsIgnoreCase("SHUTDOWN")){
+                LogFile.log(null, "info", "Shutdown requested from the admin channel.");
+                shutdown.countDown();
+                respond(session, "OK");
+            } else {
+                respond(session, "ERR too many connections");
+            }
+            return false;
+        }
+
+        synchronized (session){
+            if(session.closeAfterOutput){
+                return false;
+            }
+            session.commands.addLast(line);
+            if(session.running){
+                return true;
+            }
+            session.running = true;
+        }
+
+        try {
+            pool.execute(() -> runCommands(session));
+        } catch (RejectedExecutionException ex) {
+            // stopped meanwhile
+            close(session);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Answer a connection with one line from the selector thread, and close it once written
+     */
+    private void respond(Session session, String line){
+        synchronized (session){
+            session.output.addLast(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+            session.queuedBytes += session.output.peekLast().remaining();
+            session.closeAfterOutput = true;
+        }
+        session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+        write(session);
+    }
+
+    /**
+     * Run the queued command lines of a connection in order, on a worker thread
+     */
+    private void runCommands(Session session){
+
+        SessionWriter out = new SessionWriter(session);
+        try {
+            while(true){
+                String line;
+                synchronized (session){
+                    line = session.commands.pollFirst();
+                    if(line == null){
+                        session.running = false;
+                        session.lastProgress = System.currentTimeMillis();
+                        return;
+                    }
+                }
+
+                boolean keepOpen = execute(line, out);
+                out.flush();
+
+                if(!keepOpen){
+                    synchronized (session){
+                        session.commands.clear();
+                        session.running = false;
+                        session.closeAfterOutput = true;
+                    }
+                    requestWrite(session);
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            // the connection has been closed
+            synchronized (session){
+                session.running = false;
+            }
+        } catch (RuntimeException ex) {
+            LogFile.log(ex, "severe", "Admin command failed: " + ex.getMessage());
+            synchronized (session){
+                session.running = false;
+                session.closeAfterOutput = true;
+            }
+            requestWrite(session);
+        }
+    }
+
+    /**
+     * Ask the selector thread to write the response queued for a connection
+     */
+    private void requestWrite(Session session){
+        writable.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Write as much of the queued response as the connection takes without blocking, on the selector thread
+     */
+    private void write(Session session){
+
+        boolean done;
+        synchronized (session){
+            try {
+                while(!session.output.isEmpty()){
+                    ByteBuffer buffer = session.output.peekFirst();
+                    int n = session.channel.write(buffer);
+                    if(n > 0){
+                        session.queuedBytes -= n;
+                        session.lastProgress = System.currentTimeMillis();
+                        session.notifyAll();
+                    }
+                    if(buffer.hasRemaining()){
+                        // The socket is full, write the rest once the client has read some
+                        session.key.interestOps(session.key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    session.output.pollFirst();
+                }
+            } catch (IOException ex) {
+                // the client has gone away
+                session.output.clear();
+                session.closeAfterOutput = true;
+            }
+            if(session.key.isValid()){
+                session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            done = session.closeAfterOutput && !session.running;
+        }
+        if(done){
+            close(session);
+        }
+    }
+
+    /**
+     * Close the connections idle, or not reading their responses, for longer than the timeout
+     * A connection waiting for a command to produce its response, e.g., a REPORT, is not idle
+     */
+    private void closeExpired(){
+
+        long now = System.currentTimeMillis();
+        for (Session session : new ArrayList<>(sessions)) {
+            boolean expired;
+            synchronized (session){
+                boolean waiting = session.running && session.output.isEmpty();
+                expired = !waiting && now - session.lastProgress > idleTimeoutMillis;
+            }
+            if(expired){
+                LogFile.log(null, "info", "Closed an admin connection without progress for " + idleTimeoutMillis + " ms.");
+                close(session);
+            }
+        }
+    }
+
+    /**
+     * Close a connection on the selector thread, waking up its worker waiting to queue a response
+     */
+    private void close(Session session){
+        if(!sessions.remove(session)){
+            return;
+        }
+        if(!session.overLimit){
+            --served;
+        }
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException ex) {
+            // do nothing
+        }
+        synchronized (session){
+            session.closed = true;
+            session.output.clear();
+            session.notifyAll();
+        }
+    }
+
+    /**
+     * Writer queueing the response of a command for the selector thread, a chunk at a time,
+     *  and waiting while the queue of the connection is full
+     */
+    private class SessionWriter extends Writer {
+
+        private static final int CHUNK_CHARS = 8192;
+
+        private final Session session;
+        private final StringBuilder chunk = new StringBuilder(CHUNK_CHARS);
+
+        SessionWriter(Session session){
+            this.session = session;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            chunk.append(cbuf, off, len);
+            if(chunk.length() >= CHUNK_CHARS){
+                queue();
+            }
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            chunk.append(csq);
+            if(chunk.length() >= CHUNK_CHARS){
+                queue();
+            }
+            return this;
+        }
+
+        @Override
+        public Writer append(char c) throws IOException {
+            chunk.append(c);
+            if(chunk.length() >= CHUNK_CHARS){
+                queue();
+            }
+            return this;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            queue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue();
+        }
+
+        /**
+         * Queue the chunk as bytes, keeping a trailing high surrogate for the next chunk
+         */
+        private void queue() throws IOException {
+
+            int end = chunk.length();
+            if(end > 0 && Character.isHighSurrogate(chunk.charAt(end - 1))){
+                --end;
+            }
+            if(end == 0){
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk.substring(0, end).getBytes(StandardCharsets.UTF_8));
+            chunk.delete(0, end);
+
+            synchronized (session){
+                while(!session.closed && session.queuedBytes >= MAX_QUEUED_BYTES){
+                    try {
+                        session.wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing an admin response");
+                    }
+                }
+                if(session.closed){
+                    throw new IOException("Admin connection closed");
+                }
+                if(session.output.isEmpty()){
+                    session.lastProgress = System.currentTimeMillis();
+                }
+                session.output.addLast(buffer);
+                session.queuedBytes += buffer.remaining();
+            }
+            requestWrite(session);
+        }
+    }
+
+    /**
+     * Run one command and write its response
+     *
+     * @param line the command line
+     * @param out the writer of the response
+     * @return false if the connection should be closed
+     */
+    boolean execute(String line, Writer out) throws IOException {
+
+        String[] args = line.split("\\s+", 2);
+        String command = args[0].toUpperCase();
+        String arg = args.length > 1 ? args[1].trim() : "";
+
+        try {
+            switch (command) {
+                case "":
+                    break;
+                case "REPORT":
+                    if(sr.reportToCSV()){
+                        out.append("OK").append('\n');
+                    } else {
+                        out.append("ERR report failed, see the log").append('\n');
+                    }
+                    break;
+                case "SNAPSHOT":
+                    ss.writeCSV(out, "\n");
+                    out.append("END").append('\n');
+                    break;
+                case "TOP":
+                    writeList(ss.getTopKeywords(arg.isEmpty() ? 10 : Integer.parseInt(arg)), out);
+                    break;
+                case "PHRASES":
+                    writeList(ss.getTopPhrases(arg.isEmpty() ? 10 : Integer.parseInt(arg)), out);
+                    break;
+                case "TRENDING":
+                    writeList(ss.getTrending(arg.isEmpty() ? 10 : Integer.parseInt(arg)), out);
+                    break;
+                case "EXISTS":
+                    out.append("OK ").append(String.valueOf(!arg.isEmpty() && ss.exists(arg))).append('\n');
+                    break;
+                case "RANK":
+                    out.append("OK ").append(String.valueOf(ss.getRank(arg))).append('\n');
+                    break;
+                case "STATS":
+                    TermFilter filter = ss.getTermFilter();
+                    out.append("OK keywords=").append(String.valueOf(ss.size()))
+                            .append(" phrases=").append(String.valueOf(ss.getPhraseCount()))
+                            .append(" scoreIndex=").append(String.valueOf(ss.isScoreIndexEnabled()))
+                            .append(" deniedTerms=").append(String.valueOf(filter == null ? 0 : filter.getDenySize()))
+                            .append('\n');
+                    break;
+                case "CLEAN":
+                    out.append("OK ").append(String.valueOf(ss.cleanLowScores(Integer.parseInt(arg)))).append('\n');
+                    break;
+                case "RELOAD":
+                    if(ss.getTermFilter() == null){
+                        out.append("ERR no term filter").append('\n');
+                    } else {
+                        ss.getTermFilter().reload();
+                        out.append("OK").append('\n');
+                    }
+                    break;
+                case "SHUTDOWN":
+                    out.append("OK").append('\n');
+                    out.flush();
+                    LogFile.log(null, "info", "Shutdown requested from the admin channel.");
+                    shutdown.countDown();
+                    return false;
+                case "QUIT":
+                    return false;
+                default:
+                    out.append("ERR unknown command ").append(command).append('\n');
+                    break;
+            }
+        } catch (NumberFormatException ex) {
+            out.append("ERR not a number: ").append(arg).append('\n');
+        }
+
+        return true;
+    }
+
+    /**
+     * Write a list of entries as "key,value" lines followed by "END"
+     */
+    private static void writeList(List<? extends Map.Entry<String, ?>> list, Writer out) throws IOException {
+        for (Map.Entry<String, ?> entry : list) {
+            out.append(entry.getKey()).append(',').append(String.valueOf(entry.getValue())).append('\n');
+        }
+        out.append("END").append('\n');
+    }
+}
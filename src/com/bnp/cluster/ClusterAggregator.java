@@ -0,0 +1,339 @@
+package com.bnp.cluster;
+
+import com.bnp.logging.LogFile;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ClusterAggregator class to receive the delta frames from the cluster nodes and merge them into the storage
+ * Each node has its own sequence of frames, so a duplicated frame is skipped and a lost frame is resent by the node,
+ *  i.e., every frame is merged exactly once
+ *
+ * A node opens each connection with a handshake of its id, its epoch and the sequence number of its oldest frame
+ *  not acknowledged yet, and is answered with the last sequence number merged for it.
+ * A node with nothing to ship sends an empty frame instead, answered the same way, so a lost connection is noticed.
+ * An aggregator without any state for the node, e.g., after a restart with an empty storage, answers RESET instead,
+ *  and the node replaces its frames by its full local counts from that sequence number on,
+ *  so the counts merged by the previous aggregator process are merged again rather than lost.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ClusterAggregator {
+
+    /**
+     * The largest frame accepted, to stop a corrupted length from allocating the whole heap
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The answers to a handshake other than the last sequence number merged,
+     *  STALE for a node process restarted since, RESET for a node to resend its full local counts
+     */
+    static final long STALE = -1;
+    static final long RESET = -2;
+
+    /**
+     * The data storage of Boogle Search the frames are merged into
+     */
+    private final SearchScorerSingleton ss;
+
+    /**
+     * The port to listen on, 0 to pick a free port
+     */
+    private final int port;
+
+    /**
+     * The sequence state of each node, keyed by the node id
+     */
+    private final ConcurrentHashMap<String, NodeState> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Counters for the throughput measurement
+     */
+    private final AtomicLong framesMerged = new AtomicLong(),
+            framesSkipped = new AtomicLong(),
+            entriesMerged = new AtomicLong();
+
+    /**
+     * The thread pool serving the node connections, one thread per connection
+     */
+    private final ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-aggregator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ServerSocket server;
+
+    /**
+     * The node connections open, closed on stop
+     */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Set on stop, so no frame is merged afterwards
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * The sequence state of one node
+     */
+    private static class NodeState {
+        long epoch = Long.MIN_VALUE;
+        long lastSeq = 0;
+    }
+
+    /**
+     * C'stor
+     *
+     * @param port the port to listen on, 0 to pick a free port
+     * @param ss the data storage the frames are merged into
+     */
+    public ClusterAggregator(int port, SearchScorerSingleton ss){
+        this.port = port;
+        this.ss = ss;
+    }
+
+    /**
+     * Start listening on the loopback address at background
+     *
+     * @return the port listened on
+     * @throws IOException if the port cannot be opened
+     */
+    public int start() throws IOException {
+
+        // Reuse the address, so a restarted aggregator can listen on the port of the stopped one at once
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+
+        pool.execute(this::acceptLoop);
+
+        LogFile.log(null, "info", "Cluster aggregator is listening on port " + server.getLocalPort());
+
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stop listening and close all the connections, returning once the connections are released
+     */
+    public void stop(){
+        stopped = true;
+        try {
+            if(server != null) {
+                server.close();
+            }
+        } catch (IOException ex) {
+            LogFile.log(ex, "warning", "Failed to close the cluster aggregator.");
+        }
+
+        // Close the connections, waking up the threads blocked in reading them
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // do nothing
+            }
+        }
+        pool.shutdownNow();
+
+        // Wait for the accepting thread to release the port, so it can be listened on again at once
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resynchronize the sequence of a node on a new connection
+     *
+     * @param nodeId the id of the node
+     * @param epoch the start time of the node process
+     * @param nextSeq the sequence number of the oldest frame the node has not had acknowledged
+     * @return the last sequence number merged for the node, STALE if the node process is stale,
+     *  or RESET if the node has to resend its full local counts from nextSeq on
+     */
+    public long resync(String nodeId, long epoch, long nextSeq){
+
+        NodeState state = nodes.computeIfAbsent(nodeId, key -> new NodeState());
+
+        synchronized (state){
+
+            // Reject a node process which has been restarted since
+            if(epoch < state.epoch){
+                return STALE;
+            }
+
+            // Nothing is known of what the node has shipped before, so ask for all of its counts from its oldest frame on
+            if(state.epoch == Long.MIN_VALUE){
+                state.epoch = epoch;
+                state.lastSeq = nextSeq - 1;
+                return RESET;
+            }
+
+            // Accept a restarted node process from its oldest frame on
+            if(epoch > state.epoch){
+                state.epoch = epoch;
+                state.lastSeq = nextSeq - 1;
+            }
+
+            // The frames before the oldest one have been merged, even if their acknowledgements were lost
+            state.lastSeq = Math.max(state.lastSeq, nextSeq - 1);
+
+            return state.lastSeq;
+        }
+    }
+
+    /**
+     * Merge a frame into the storage, unless it has been merged before
+     *
+     * @param frame the frame received
+     * @return the last sequence number merged for the node, or -1 if the frame is from a stale node process
+     */
+    public long apply(DeltaFrame frame){
+
+        NodeState state = nodes.computeIfAbsent(frame.getNodeId(), key -> new NodeState());
+
+        // Ensure the frames of one node are merged in order, while different nodes are merged in parallel
+        synchronized (state){
+
+            // Reject the frames of a node process which has been restarted since
+            if(frame.getEpoch() < state.epoch){
+                return STALE;
+            }
+
+            // Accept an unknown or restarted node process from its first frame on
+            if(frame.getEpoch() > state.epoch){
+                state.epoch = frame.getEpoch();
+                state.lastSeq = frame.getSeq() - 1;
+            }
+
+            // Skip a duplicated frame, or wait for the node to resend the missing frames before a gap
+            if(frame.getSeq() != state.lastSeq + 1){
+                framesSkipped.incrementAndGet();
+                return state.lastSeq;
+            }
+
+            // Merge the partial counts
+            for (Map.Entry<String, Integer> entry : frame.getDeltas().entrySet()) {
+                ss.mergeCount(entry.getKey(), entry.getValue());
+            }
+
+            state.lastSeq = frame.getSeq();
+            framesMerged.incrementAndGet();
+            entriesMerged.addAndGet(frame.getDeltas().size());
+
+            return state.lastSeq;
+        }
+    }
+
+    /**
+     * Returns the last sequence number merged for a node, or STALE if the node process is stale
+     */
+    private long lastSeq(String nodeId, long epoch){
+        NodeState state = nodes.computeIfAbsent(nodeId, key -> new NodeState());
+        synchronized (state){
+            return epoch < state.epoch ? STALE : state.lastSeq;
+        }
+    }
+
+    public long getFramesMerged(){
+        return framesMerged.get();
+    }
+
+    public long getFramesSkipped(){
+        return framesSkipped.get();
+    }
+
+    public long getEntriesMerged(){
+        return entriesMerged.get();
+    }
+
+    /**
+     * Accept the node connections until stopped
+     */
+    private void acceptLoop(){
+        while(!server.isClosed()){
+            try {
+                Socket socket = server.accept();
+                connections.add(socket);
+                if(stopped){
+                    socket.close();
+                    return;
+                }
+                pool.execute(() -> serve(socket));
+            } catch (IOException ex) {
+                if(!server.isClosed()) {
+                    LogFile.log(ex, "warning", "Failed to accept a cluster node connection.");
+                }
+            } catch (RejectedExecutionException ex) {
+                // stopped while accepting
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answer the handshake of one connection, then read its frames and acknowledge each of them with the last sequence number merged
+     *
+     * @param socket the node connection
+     */
+    private void serve(Socket socket){
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+            // The handshake
+            String nodeId = in.readUTF();
+            long epoch = in.readLong();
+            out.writeLong(resync(nodeId, epoch, in.readLong()));
+            out.flush();
+
+            while(!stopped){
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    // The node has closed the connection
+                    return;
+                }
+                if(length < 0 || length > MAX_FRAME_BYTES){
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                // Answer an empty frame, the heartbeat of an idle node, with the last sequence number merged
+                if(length == 0){
+                    out.writeLong(lastSeq(nodeId, epoch));
+                    out.flush();
+                    continue;
+                }
+
+                byte[] data = new byte[length];
+                in.readFully(data);
+
+                if(stopped){
+                    return;
+                }
+                out.writeLong(apply(DeltaFrame.decode(data)));
+                out.flush();
+            }
+        } catch (IOException ex) {
+            if(!server.isClosed()) {
+                LogFile.log(ex, "warning", "Cluster node connection closed: " + ex.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+}
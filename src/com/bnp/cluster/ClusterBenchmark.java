@@ -0,0 +1,150 @@
+package com.bnp.cluster;
+
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * Benchmark of the aggregator merge rate as the number of nodes grows
+ * The aggregator runs in this process, and each node runs as a separate process over the loopback address
+ *
+ * Each node process connects, and generates and encodes all its frames before reporting ready,
+ *  so the clock only runs from the release of the nodes to the last frame merged, i.e., neither the start of
+ *  the processes nor the counting on the nodes is measured.
+ *
+ * Usage:
+ *   ClusterBenchmark [framesPerNode] [batchSize] [vocabulary] [maxNodes]
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ClusterBenchmark {
+
+    /**
+     * The maximum number of frames a node sends before reading their acknowledgements, as ClusterNode does
+     */
+    private static final int WINDOW = 64;
+
+    public static void main(String[] args) throws Exception {
+
+        // A node process started by the benchmark
+        if(args.length > 0 && args[0].equals("node")){
+            runNode(Integer.parseInt(args[1]), args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+            return;
+        }
+
+        int framesPerNode = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : ClusterNode.DEFAULT_BATCH_SIZE;
+        int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int maxNodes = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+        int port = aggregator.start();
+
+        System.out.println("nodes,frames,entries,seconds,entries/s,frames/s");
+
+        for (int nodes = 1; nodes <= maxNodes; nodes *= 2) {
+
+            ss.clear();
+            long frames = aggregator.getFramesMerged(), entries = aggregator.getEntriesMerged();
+            long expected = frames + (long) nodes * framesPerNode;
+
+            // Start the node processes, and wait for each of them to be connected with its frames encoded
+            List<Process> processes = new ArrayList<>();
+            for (int i = 0; i < nodes; ++i) {
+                processes.add(new ProcessBuilder(
+                        new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"),
+                        ClusterBenchmark.class.getName(), "node",
+                        String.valueOf(port), "node" + nodes + "-" + i,
+                        String.valueOf(framesPerNode), String.valueOf(batchSize), String.valueOf(vocabulary))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            for (Process process : processes) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                if(!"READY".equals(reader.readLine())){
+                    throw new IOException("A node process failed to start");
+                }
+            }
+
+            // Release all the nodes at once, and measure until the last frame is merged
+            long start = System.nanoTime();
+            for (Process process : processes) {
+                process.getOutputStream().close();
+            }
+            while(aggregator.getFramesMerged() < expected){
+                Thread.sleep(1);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            for (Process process : processes) {
+                process.waitFor();
+            }
+
+            frames = aggregator.getFramesMerged() - frames;
+            entries = aggregator.getEntriesMerged() - entries;
+
+            System.out.printf("%d,%d,%d,%.3f,%.0f,%.0f%n", nodes, frames, entries, seconds, entries / seconds, frames / seconds);
+        }
+
+        aggregator.stop();
+    }
+
+    /**
+     * Encode frames of random deltas, then ship them to the aggregator once released by the end of the standard input
+     */
+    private static void runNode(int port, String nodeId, int frames, int batchSize, int vocabulary) throws IOException {
+
+        long epoch = System.currentTimeMillis();
+        Random random = new Random(nodeId.hashCode());
+
+        // Generate and encode all the frames up front
+        List<byte[]> encoded = new ArrayList<>(frames);
+        for (int seq = 1; seq <= frames; ++seq) {
+            Map<String, Integer> deltas = new HashMap<>();
+            while(deltas.size() < Math.min(batchSize, vocabulary)){
+                deltas.merge("kw" + random.nextInt(vocabulary), 1 + random.nextInt(10), Integer::sum);
+            }
+            encoded.add(new DeltaFrame(nodeId, epoch, seq, deltas).encode());
+        }
+
+        try (Socket socket = new Socket("127.0.0.1", port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+
+            socket.setTcpNoDelay(true);
+
+            // The handshake, as ClusterNode does, the frames below being all the counts of this node if asked for a reset
+            out.writeUTF(nodeId);
+            out.writeLong(epoch);
+            out.writeLong(1);
+            out.flush();
+            in.readLong();
+
+            System.out.println("READY");
+            System.out.flush();
+
+            // Wait for the release
+            while(System.in.read() >= 0){
+                // do nothing
+            }
+
+            // Send the frames a window at a time
+            for (int first = 0; first < encoded.size(); first += WINDOW) {
+                int last = Math.min(first + WINDOW, encoded.size());
+                for (int i = first; i < last; ++i) {
+                    out.writeInt(encoded.get(i).length);
+                    out.write(encoded.get(i));
+                }
+                out.flush();
+                for (int i = first; i < last; ++i) {
+                    in.readLong();
+                }
+            }
+        }
+    }
+}
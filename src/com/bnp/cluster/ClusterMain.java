@@ -0,0 +1,74 @@
+package com.bnp.cluster;
+
+import com.bnp.logging.LogFile;
+import com.bnp.scorereporter.ReportScore;
+import com.bnp.scorereporter.ScoreReporter;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Timer;
+
+/**
+ * Main class to run a process of the cluster mode, either as the aggregator or as a node
+ *
+ * Usage:
+ *   ClusterMain aggregator [port] [configFile]
+ *   ClusterMain node [nodeId] [host] [port] [periodMillis] [configFile]
+ * A node reads one search term per line from the standard input, and ships its last deltas at the end of the input
+ * A node drops the terms of the deny and allow lists of its configuration before counting, the same as a single process
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ClusterMain {
+
+    public static void main(String[] args) throws IOException {
+
+        if(args.length < 2){
+            System.out.println("Usage: ClusterMain aggregator [port] [configFile] | node [nodeId] [host] [port] [periodMillis] [configFile]");
+            return;
+        }
+
+        SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+
+        if(args[0].equals("aggregator")) {
+
+            // Merge the deltas of all nodes into the storage of this process
+            ClusterAggregator aggregator = new ClusterAggregator(Integer.parseInt(args[1]), ss);
+            aggregator.start();
+
+            // Start both scheduled and on-demand reporting from the merged storage
+            String configFile = args.length > 2 ? args[2] : "cfg/SystemDefinition.csv";
+            ReportScore rs = new ReportScore(new ScoreReporter(configFile, ss));
+            rs.report();
+
+            aggregator.stop();
+
+        } else if(args[0].equals("node") && args.length >= 4) {
+
+            long period = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+
+            // Drop the stopwords and the blocked terms configured before counting, so they are never shipped
+            String configFile = args.length > 5 ? args[5] : "cfg/SystemDefinition.csv";
+            new ScoreReporter(configFile, ss).installTermFilter();
+
+            ClusterNode node = new ClusterNode(args[1], args[2], Integer.parseInt(args[3]), ss);
+            Timer timer = node.runTask(period);
+
+            // Count the search terms locally, the timer ships the deltas at background
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    ss.inputSearchTerm(line);
+                }
+            }
+
+            timer.cancel();
+            node.shutdown();
+
+            LogFile.log(null, "info", "Cluster node " + args[1] + " finished with " + node.getUnackedFrames() + " frames unacknowledged.");
+        }
+    }
+}
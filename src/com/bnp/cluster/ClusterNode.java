@@ -0,0 +1,345 @@
+package com.bnp.cluster;
+
+import com.bnp.logging.LogFile;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * ClusterNode class to ship the local count deltas to the aggregator in batched frames
+ * A frame is kept until the aggregator acknowledges it, and resent in order after a failure,
+ *  so a lost connection never loses or double-counts a delta
+ * Each connection starts with a handshake telling the aggregator the oldest frame not acknowledged yet,
+ *  so a restarted aggregator picks up the sequence instead of waiting for frames merged by its previous process.
+ * An aggregator without any state for this node asks for a reset, and the frames are replaced by the full local counts,
+ *  so the counts merged by a previous aggregator process are shipped again to the new one.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ClusterNode extends TimerTask {
+
+    /**
+     * The default maximum number of keywords per frame
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * The default time to wait for the aggregator to accept a connection or to answer, in milliseconds
+     */
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The maximum number of frames sent before reading their acknowledgements,
+     *  and the number of unacknowledged frames beyond which the deltas are left pending
+     */
+    private static final int WINDOW = 64;
+
+    /**
+     * The data storage of Boogle Search the deltas are drained from
+     */
+    private final SearchScorerSingleton ss;
+
+    /**
+     * The id of this node and the start time of this node process
+     */
+    private final String nodeId;
+    private final long epoch = System.currentTimeMillis();
+
+    /**
+     * The address of the aggregator
+     */
+    private final String host;
+    private final int port;
+
+    /**
+     * The maximum number of keywords per frame
+     */
+    private final int batchSize;
+
+    /**
+     * The time to wait for the aggregator to accept a connection or to answer, in milliseconds,
+     *  so a hung aggregator never blocks the timer thread and shutdown() for good
+     */
+    private final int timeoutMillis;
+
+    /**
+     * The frames sent but not acknowledged yet, in sequence order
+     */
+    private final ArrayDeque<DeltaFrame> unacked = new ArrayDeque<>();
+
+    /**
+     * The sequence number of the last frame created
+     */
+    private long seq = 0;
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    /**
+     * C'stor
+     *
+     * @param nodeId the id of this node, unique in the cluster
+     * @param host the host of the aggregator
+     * @param port the port of the aggregator
+     * @param ss the data storage the deltas are drained from
+     */
+    public ClusterNode(String nodeId, String host, int port, SearchScorerSingleton ss){
+        this(nodeId, host, port, ss, DEFAULT_BATCH_SIZE);
+    }
+
+    public ClusterNode(String nodeId, String host, int port, SearchScorerSingleton ss, int batchSize){
+        this(nodeId, host, port, ss, batchSize, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * C'stor
+     *
+     * @param nodeId the id of this node, unique in the cluster
+     * @param host the host of the aggregator
+     * @param port the port of the aggregator
+     * @param ss the data storage the deltas are drained from
+     * @param batchSize the maximum number of keywords per frame
+     * @param timeoutMillis the time to wait for the aggregator to accept a connection or to answer, in milliseconds
+     */
+    public ClusterNode(String nodeId, String host, int port, SearchScorerSingleton ss, int batchSize, int timeoutMillis){
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+        this.ss = ss;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+
+        // Start recording the deltas from now on
+        ss.enableDeltaTracking();
+    }
+
+    /**
+     * Run the shipping using a timer with the specified time interval
+     *
+     * @param periodMillis the time interval in milliseconds
+     * @return the Timer object to control the scheduled task
+     */
+    public Timer runTask(long periodMillis){
+        Timer timer = new Timer("cluster-node", true);
+        timer.schedule(this, periodMillis, periodMillis);
+        return timer;
+    }
+
+    /**
+     * The Timer Task process to run at specified time interval
+     */
+    @Override
+    public void run() {
+        try {
+            flush();
+        } catch (IOException ex) {
+            LogFile.log(ex, "warning", "Failed to ship deltas to the aggregator, retrying next time: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Drain the pending deltas into frames and ship all the unacknowledged frames to the aggregator
+     *
+     * @throws IOException if the aggregator is unreachable, the frames and the deltas are kept for the next flush
+     */
+    public synchronized void flush() throws IOException {
+
+        try {
+            // Connect before draining, so the deltas stay in the pending map while the aggregator is unreachable,
+            //  coalesced per keyword, instead of piling up as frames
+            // Connect even with nothing to ship, so a restarted aggregator gets the full counts without waiting for a new delta
+            boolean connected = socket != null;
+            if(!connect()){
+                return;
+            }
+
+            boolean shipped = false;
+            while(true){
+
+                // Batch the pending deltas into frames, leaving the rest pending while a window of frames is unacknowledged
+                Map<String, Integer> batch;
+                while(unacked.size() < WINDOW && !(batch = ss.drainDeltas(batchSize)).isEmpty()){
+                    unacked.addLast(new DeltaFrame(nodeId, epoch, ++seq, batch));
+                }
+
+                if(unacked.isEmpty()){
+                    break;
+                }
+                if(!shipWindow()){
+                    return;
+                }
+                shipped = true;
+            }
+
+            // Check the idle connection is still alive, a closed one is noticed here and reconnected next time
+            if(!shipped && connected){
+                heartbeat();
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Send a window of the unacknowledged frames in order, so the acknowledgements never fill up the socket buffer,
+     *  and drop each of them once acknowledged
+     *
+     * @return false if the aggregator rejected this node process as stale
+     */
+    private boolean shipWindow() throws IOException {
+
+        long oldest = unacked.peekFirst().getSeq();
+        int sent = 0;
+        for (DeltaFrame frame : unacked) {
+            if(sent == WINDOW){
+                break;
+            }
+            byte[] data = frame.encode();
+            out.writeInt(data.length);
+            out.write(data);
+            ++sent;
+        }
+        out.flush();
+
+        // Drop each of the frames once acknowledged, the rest are resent in the next window
+        for (int i = 0; i < sent; ++i) {
+            long ack = in.readLong();
+            if(ack < 0){
+                // The aggregator has seen a newer process of this node, nothing more can be merged
+                LogFile.log(null, "severe", "Aggregator rejected node " + nodeId + " as stale, dropping " + unacked.size() + " frames.");
+                unacked.clear();
+                close();
+                return false;
+            }
+            while(!unacked.isEmpty() && unacked.peekFirst().getSeq() <= ack){
+                unacked.removeFirst();
+            }
+        }
+
+        // Stop resending a window the aggregator does not merge, and retry on a new connection next time
+        if(!unacked.isEmpty() && unacked.peekFirst().getSeq() == oldest){
+            throw new IOException("Aggregator did not acknowledge frame " + oldest + " of node " + nodeId);
+        }
+        return true;
+    }
+
+    /**
+     * Ship the remaining deltas and close the connection
+     */
+    public void shutdown(){
+        cancel();
+        try {
+            flush();
+        } catch (IOException ex) {
+            LogFile.log(ex, "warning", "Failed to ship the last deltas to the aggregator.");
+        }
+        close();
+    }
+
+    /**
+     * Returns the number of frames not acknowledged yet
+     */
+    public synchronized int getUnackedFrames(){
+        return unacked.size();
+    }
+
+    /**
+     * Connect to the aggregator if not connected, and drop the frames it has merged already
+     *
+     * @return false if the aggregator rejected this node process as stale
+     */
+    private boolean connect() throws IOException {
+        if(socket == null) {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            // The handshake
+            long nextSeq = unacked.isEmpty() ? seq + 1 : unacked.peekFirst().getSeq();
+            out.writeUTF(nodeId);
+            out.writeLong(epoch);
+            out.writeLong(nextSeq);
+            out.flush();
+
+            long ack = in.readLong();
+            if(ack == ClusterAggregator.RESET){
+                reset(nextSeq);
+                return true;
+            }
+            if(ack < 0){
+                // The aggregator has seen a newer process of this node, nothing more can be merged
+                LogFile.log(null, "severe", "Aggregator rejected node " + nodeId + " as stale, dropping " + unacked.size() + " frames.");
+                unacked.clear();
+                close();
+                return false;
+            }
+            while(!unacked.isEmpty() && unacked.peekFirst().getSeq() <= ack){
+                unacked.removeFirst();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Send an empty frame and read its acknowledgement
+     */
+    private void heartbeat() throws IOException {
+        out.writeInt(0);
+        out.flush();
+        if(in.readLong() < 0){
+            // The aggregator has seen a newer process of this node
+            LogFile.log(null, "severe", "Aggregator rejected node " + nodeId + " as stale.");
+            close();
+        }
+    }
+
+    /**
+     * Replace the frames not acknowledged yet by the full local counts, numbered from the specified sequence number
+     * The pending deltas are dropped along with them, as the full counts include them
+     *
+     * @param nextSeq the sequence number of the first frame of the full counts
+     */
+    private void reset(long nextSeq){
+
+        unacked.clear();
+        seq = nextSeq - 1;
+
+        Map<String, Integer> counts = ss.resetDeltas();
+        LogFile.log(null, "info", "Aggregator asked node " + nodeId + " for a reset, resending " + counts.size() + " keywords.");
+
+        // Batch the full counts into frames
+        Map<String, Integer> batch = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if(batch.size() == batchSize){
+                unacked.addLast(new DeltaFrame(nodeId, epoch, ++seq, batch));
+                batch = new HashMap<>();
+            }
+        }
+        if(!batch.isEmpty()){
+            unacked.addLast(new DeltaFrame(nodeId, epoch, ++seq, batch));
+        }
+    }
+
+    private synchronized void close(){
+        try {
+            if(socket != null) {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            // do nothing
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+}
@@ -0,0 +1,194 @@
+package com.bnp.cluster;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * DeltaFrame class to carry a batch of count deltas from a cluster node to the aggregator
+ * The keywords are sorted and front-coded against the previous keyword, and all numbers are varint encoded,
+ *  so a frame stays compact even with thousands of keywords
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class DeltaFrame {
+
+    /**
+     * Magic number at the start of each encoded frame, "BGDF"
+     */
+    private static final int MAGIC = 0x42474446;
+
+    /**
+     * The id of the node sending the frame
+     */
+    private final String nodeId;
+
+    /**
+     * The start time of the node process, used to tell a restarted node from a replayed one
+     */
+    private final long epoch;
+
+    /**
+     * The sequence number of the frame, starting from 1 and increasing by 1 per frame of the same epoch
+     */
+    private final long seq;
+
+    /**
+     * The count deltas of the keywords, sorted by the keywords
+     */
+    private final TreeMap<String, Integer> deltas;
+
+    /**
+     * C'stor
+     *
+     * @param nodeId the id of the node sending the frame
+     * @param epoch the start time of the node process
+     * @param seq the sequence number of the frame
+     * @param deltas the count deltas of the keywords
+     */
+    public DeltaFrame(String nodeId, long epoch, long seq, Map<String, Integer> deltas){
+        this.nodeId = nodeId;
+        this.epoch = epoch;
+        this.seq = seq;
+        this.deltas = new TreeMap<>(deltas);
+    }
+
+    public String getNodeId(){
+        return nodeId;
+    }
+
+    public long getEpoch(){
+        return epoch;
+    }
+
+    public long getSeq(){
+        return seq;
+    }
+
+    public Map<String, Integer> getDeltas(){
+        return Collections.unmodifiableMap(deltas);
+    }
+
+    /**
+     * Encode the frame into bytes
+     *
+     * @return the encoded frame
+     */
+    public byte[] encode(){
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + deltas.size() * 8);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+
+            // Write the Header
+            out.writeInt(MAGIC);
+            out.writeUTF(nodeId);
+            out.writeLong(epoch);
+            writeVarLong(out, seq);
+            writeVarLong(out, deltas.size());
+
+            // Write the content, front-coding each keyword against the previous one
+            byte[] previous = new byte[0];
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int shared = sharedPrefix(previous, key);
+                writeVarLong(out, shared);
+                writeVarLong(out, key.length - shared);
+                out.write(key, shared, key.length - shared);
+                writeVarLong(out, zigZag(entry.getValue()));
+                previous = key;
+            }
+
+        } catch (IOException ex) {
+            // Never happens when writing to memory
+            throw new UncheckedIOException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a frame from bytes
+     *
+     * @param data the encoded frame
+     * @return the decoded frame
+     * @throws IOException if the bytes are not a valid frame
+     */
+    public static DeltaFrame decode(byte[] data) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+
+            // Read the Header
+            if(in.readInt() != MAGIC){
+                throw new IOException("Not a delta frame");
+            }
+            String nodeId = in.readUTF();
+            long epoch = in.readLong();
+            long seq = readVarLong(in);
+            long size = readVarLong(in);
+
+            // Read the content, rebuilding each keyword from the previous one
+            Map<String, Integer> deltas = new HashMap<>();
+            byte[] previous = new byte[0];
+            for (long i = 0; i < size; ++i) {
+                int shared = (int) readVarLong(in);
+                int suffix = (int) readVarLong(in);
+                if(shared > previous.length){
+                    throw new IOException("Corrupted delta frame");
+                }
+                byte[] key = Arrays.copyOf(previous, shared + suffix);
+                in.readFully(key, shared, suffix);
+                deltas.put(new String(key, StandardCharsets.UTF_8), unZigZag(readVarLong(in)));
+                previous = key;
+            }
+
+            return new DeltaFrame(nodeId, epoch, seq, deltas);
+        }
+    }
+
+    /**
+     * Returns the length of the common prefix of two byte arrays
+     */
+    private static int sharedPrefix(byte[] a, byte[] b){
+        int max = Math.min(a.length, b.length), i = 0;
+        while(i < max && a[i] == b[i]){
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Map a signed delta to an unsigned number, so small negative deltas stay small
+     */
+    private static long zigZag(int value){
+        return ((long) value << 1) ^ ((long) value >> 63);
+    }
+
+    private static int unZigZag(long value){
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    /**
+     * Write an unsigned number in 7 bits per byte
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while((value & ~0x7FL) != 0){
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
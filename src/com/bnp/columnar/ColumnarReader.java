@@ -0,0 +1,330 @@
+package com.bnp.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.bnp.columnar.ColumnarWriter.*;
+
+/**
+ * ColumnarReader class to read a columnar file written by ColumnarWriter
+ * The file is memory-mapped, and only the small footer is read up front.
+ * A keyword is looked up by a binary search over the first keywords of the blocks, comparing the raw UTF-8 bytes,
+ *  and the scores are scanned block by block, skipping the blocks by their min and max, without decoding any keyword.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ColumnarReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The number of keywords
+     */
+    private final int size;
+
+    /**
+     * The footer index of the keyword blocks and the score blocks
+     */
+    private final int[] keyOffsets, scoreOffsets;
+    private final int[] mins, maxs;
+    private final byte[] widths;
+
+    /**
+     * C'stor
+     *
+     * @param fileName the file name of the file to read
+     * @throws IOException if the file cannot be read or is not a columnar file
+     */
+    public ColumnarReader(String fileName) throws IOException {
+
+        file = new RandomAccessFile(fileName, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+
+            // Check the header and the trailer
+            int end = buffer.capacity();
+            if(end < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(end - 4) != MAGIC){
+                throw new IOException("Not a columnar file " + fileName);
+            }
+            if(buffer.getInt(4) != VERSION){
+                throw new IOException("Unsupported columnar file version " + buffer.getInt(4));
+            }
+
+            // Read the footer
+            int pos = buffer.getInt(end - 8);
+            size = buffer.getInt(pos);
+            keyOffsets = new int[buffer.getInt(pos + 4)];
+            pos += 8;
+            for (int i = 0; i < keyOffsets.length; ++i, pos += 4) {
+                keyOffsets[i] = buffer.getInt(pos);
+            }
+            int scoreBlocks = buffer.getInt(pos);
+            pos += 4;
+            scoreOffsets = new int[scoreBlocks];
+            mins = new int[scoreBlocks];
+            maxs = new int[scoreBlocks];
+            widths = new byte[scoreBlocks];
+            for (int b = 0; b < scoreBlocks; ++b, pos += 13) {
+                scoreOffsets[b] = buffer.getInt(pos);
+                mins[b] = buffer.getInt(pos + 4);
+                maxs[b] = buffer.getInt(pos + 8);
+                widths[b] = buffer.get(pos + 12);
+            }
+        } catch (IOException | RuntimeException ex) {
+            file.close();
+            throw ex instanceof IOException ? (IOException) ex : new IOException("Corrupted columnar file " + fileName, ex);
+        }
+    }
+
+    /**
+     * Returns the number of keywords
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns the position of a keyword in the sorted order
+     *
+     * @param keyword the keyword to look up
+     * @return the position, or -1 if the keyword does not exist
+     */
+    public int indexOf(String keyword){
+
+        byte[] target = keyword.getBytes(StandardCharsets.UTF_8);
+
+        // Binary search the last block whose first keyword is not greater than the target
+        int lo = 0, hi = keyOffsets.length - 1, block = -1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int pos = keyOffsets[mid];
+            int length = readVarInt(pos);
+            int cmp = compareToBuffer(target, pos + varIntSize(length), length);
+            if(cmp == 0){
+                return mid * KEYS_PER_BLOCK;
+            }
+            if(cmp > 0){
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if(block < 0){
+            return -1;
+        }
+
+        // Scan the front-coded keywords of the block, rebuilding their bytes in place
+        int pos = keyOffsets[block];
+        int length = readVarInt(pos);
+        pos += varIntSize(length);
+        byte[] current = new byte[Math.max(length, target.length) + 16];
+        copy(pos, current, 0, length);
+        pos += length;
+
+        int first = block * KEYS_PER_BLOCK, last = Math.min(size, first + KEYS_PER_BLOCK);
+        for (int i = first + 1; i < last; ++i) {
+            int header = readVarInt(pos);
+            pos += varIntSize(header);
+            int shared = header & SHARED_MASK, suffix = header >>> SHARED_BITS;
+            if(shared == SHARED_MASK){
+                int more = readVarInt(pos);
+                pos += varIntSize(more);
+                shared += more;
+            }
+            if(shared + suffix > current.length){
+                current = Arrays.copyOf(current, shared + suffix);
+            }
+            copy(pos, current, shared, suffix);
+            pos += suffix;
+            length = shared + suffix;
+
+            int cmp = compareBytes(target, target.length, current, length);
+            if(cmp == 0){
+                return i;
+            }
+            if(cmp < 0){
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the score of a keyword
+     *
+     * @param keyword the keyword to look up
+     * @return the score, or 0 if the keyword does not exist
+     */
+    public int getScore(String keyword){
+        int index = indexOf(keyword);
+        return index < 0 ? 0 : scoreAt(index);
+    }
+
+    /**
+     * Returns the score at a position in the sorted order
+     *
+     * @param index the position
+     * @return the score
+     */
+    public int scoreAt(int index){
+        int b = index / SCORES_PER_BLOCK;
+        return (int) (mins[b] + unpack(scoreOffsets[b], widths[b], index % SCORES_PER_BLOCK));
+    }
+
+    /**
+     * Returns the keyword at a position in the sorted order, decoding the keywords of its block
+     *
+     * @param index the position
+     * @return the keyword
+     */
+    public String keywordAt(int index){
+
+        int pos = keyOffsets[index / KEYS_PER_BLOCK];
+        int length = readVarInt(pos);
+        pos += varIntSize(length);
+        byte[] current = new byte[length];
+        copy(pos, current, 0, length);
+        pos += length;
+
+        for (int i = index / KEYS_PER_BLOCK * KEYS_PER_BLOCK; i < index; ++i) {
+            int header = readVarInt(pos);
+            pos += varIntSize(header);
+            int shared = header & SHARED_MASK, suffix = header >>> SHARED_BITS;
+            if(shared == SHARED_MASK){
+                int more = readVarInt(pos);
+                pos += varIntSize(more);
+                shared += more;
+            }
+            current = Arrays.copyOf(current, shared + suffix);
+            copy(pos, current, shared, suffix);
+            pos += suffix;
+        }
+
+        return new String(current, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of keywords with a score of at least n, skipping the blocks by their min and max
+     *
+     * @param n the score threshold
+     * @return the number of keywords
+     */
+    public int countAtLeast(int n){
+
+        int total = 0;
+        for (int b = 0; b < scoreOffsets.length; ++b) {
+            int count = Math.min(SCORES_PER_BLOCK, size - b * SCORES_PER_BLOCK);
+            if(maxs[b] < n){
+                continue;
+            }
+            if(mins[b] >= n){
+                total += count;
+                continue;
+            }
+            for (int i = 0; i < count; ++i) {
+                if(mins[b] + unpack(scoreOffsets[b], widths[b], i) >= n){
+                    ++total;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the highest score, from the footer only
+     *
+     * @return the highest score, or 0 if there is no keyword
+     */
+    public int maxScore(){
+        int max = 0;
+        for (int value : maxs) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Read the i-th bit-packed value of a score block
+     */
+    private long unpack(int offset, int width, int i){
+
+        if(width == 0){
+            return 0;
+        }
+
+        long bit = (long) i * width;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        long value = buffer.getLong(offset + word * 8) >>> shift;
+        if(shift + width > 64){
+            value |= buffer.getLong(offset + word * 8 + 8) << (64 - shift);
+        }
+        return value & ((1L << width) - 1);
+    }
+
+    /**
+     * Compare the target bytes with the bytes in the mapped file
+     */
+    private int compareToBuffer(byte[] target, int pos, int length){
+        int n = Math.min(target.length, length);
+        for (int i = 0; i < n; ++i) {
+            int diff = (target[i] & 0xFF) - (buffer.get(pos + i) & 0xFF);
+            if(diff != 0){
+                return diff;
+            }
+        }
+        return target.length - length;
+    }
+
+    private static int compareBytes(byte[] a, int aLength, byte[] b, int bLength){
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; ++i) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(diff != 0){
+                return diff;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Copy bytes from the mapped file, leaving the position of the buffer untouched so the readers can share it
+     */
+    private void copy(int pos, byte[] dst, int off, int length){
+        for (int i = 0; i < length; ++i) {
+            dst[off + i] = buffer.get(pos + i);
+        }
+    }
+
+    private int readVarInt(int pos){
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(pos++);
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+    }
+
+    private static int varIntSize(int value){
+        int size = 1;
+        while((value & ~0x7F) != 0){
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+}
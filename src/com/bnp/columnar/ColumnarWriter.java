@@ -0,0 +1,218 @@
+package com.bnp.columnar;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnarWriter class to write the keywords and their scores in a compact columnar file, read by ColumnarReader
+ *
+ * Layout of the file, all numbers in big-endian:
+ *   header       magic "BGCX", version
+ *   keywords     the keywords sorted by their UTF-8 bytes, in blocks of KEYS_PER_BLOCK,
+ *                the first keyword of a block in full as (length, bytes), the others front-coded as (header, suffix bytes),
+ *                the header packing the suffix length and the shared prefix length into one varint, usually one byte,
+ *                as (suffix length << SHARED_BITS | shared), followed by a varint of (shared - SHARED_MASK) if shared >= SHARED_MASK
+ *   scores       the scores in the order of the keywords, in blocks of SCORES_PER_BLOCK,
+ *                each block bit-packed into longs as (score - min) at the fewest bits holding (max - min)
+ *   footer       the number of keywords, the offset of each keyword block,
+ *                and the offset, min, max and bit width of each score block
+ *   trailer      the offset of the footer, magic "BGCX"
+ * The offsets are ints, as the file is mapped into one buffer of 2 GB at most.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class ColumnarWriter {
+
+    static final int MAGIC = 0x42474358;
+    static final int VERSION = 2;
+
+    /**
+     * The bits of the front-coding header holding the shared prefix length, and the escape value for a longer prefix
+     */
+    static final int SHARED_BITS = 5;
+    static final int SHARED_MASK = (1 << SHARED_BITS) - 1;
+
+    /**
+     * The number of keywords per block, i.e., the keywords scanned at most by a lookup after the binary search
+     */
+    static final int KEYS_PER_BLOCK = 32;
+
+    /**
+     * The number of scores per block, sharing one min and one bit width
+     */
+    static final int SCORES_PER_BLOCK = 128;
+
+    /**
+     * Not instantiable
+     */
+    private ColumnarWriter(){
+    }
+
+    /**
+     * Write the keywords and their scores to a columnar file
+     *
+     * @param map the keywords and their scores
+     * @param fileName the file name of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Map<String, Integer> map, String fileName) throws IOException {
+
+        // Take a snapshot of the entries, sorted by the UTF-8 bytes of the keywords
+        List<Object[]> entries = new ArrayList<>(map.size());
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            entries.add(new Object[]{entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()});
+        }
+        entries.sort((a, b) -> compareBytes((byte[]) a[0], (byte[]) b[0]));
+
+        int n = entries.size();
+        int keyBlocks = (n + KEYS_PER_BLOCK - 1) / KEYS_PER_BLOCK;
+        int scoreBlocks = (n + SCORES_PER_BLOCK - 1) / SCORES_PER_BLOCK;
+        int[] keyOffsets = new int[keyBlocks];
+        int[] scoreOffsets = new int[scoreBlocks];
+        int[] mins = new int[scoreBlocks], maxs = new int[scoreBlocks];
+        byte[] widths = new byte[scoreBlocks];
+
+        // The counter sits above the buffer, so it counts the bytes as they are written
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+             DataOutputStream out = new DataOutputStream(counter)) {
+
+            // Write the Header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // Write the keyword blocks
+            byte[] previous = null;
+            for (int i = 0; i < n; ++i) {
+                byte[] key = (byte[]) entries.get(i)[0];
+                if(i % KEYS_PER_BLOCK == 0){
+                    keyOffsets[i / KEYS_PER_BLOCK] = (int) counter.count;
+                    writeVarInt(out, key.length);
+                    out.write(key);
+                } else {
+                    int shared = sharedPrefix(previous, key);
+                    writeVarInt(out, (key.length - shared) << SHARED_BITS | Math.min(shared, SHARED_MASK));
+                    if(shared >= SHARED_MASK){
+                        writeVarInt(out, shared - SHARED_MASK);
+                    }
+                    out.write(key, shared, key.length - shared);
+                }
+                previous = key;
+            }
+
+            // Write the score blocks, aligned to 8 bytes for the readers reading whole longs
+            for (int b = 0; b < scoreBlocks; ++b) {
+                int from = b * SCORES_PER_BLOCK, to = Math.min(n, from + SCORES_PER_BLOCK);
+
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (int i = from; i < to; ++i) {
+                    int score = (Integer) entries.get(i)[1];
+                    min = Math.min(min, score);
+                    max = Math.max(max, score);
+                }
+                int width = 64 - Long.numberOfLeadingZeros((long) max - min);
+
+                long[] words = new long[(int) (((long) (to - from) * width + 63) / 64)];
+                for (int i = from; i < to; ++i) {
+                    long value = (long) (Integer) entries.get(i)[1] - min;
+                    long bit = (long) (i - from) * width;
+                    int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+                    words[word] |= value << shift;
+                    if(shift + width > 64){
+                        words[word + 1] |= value >>> (64 - shift);
+                    }
+                }
+
+                while(counter.count % 8 != 0){
+                    out.writeByte(0);
+                }
+                scoreOffsets[b] = (int) counter.count;
+                mins[b] = min;
+                maxs[b] = max;
+                widths[b] = (byte) width;
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+
+            // Write the footer
+            if(counter.count > Integer.MAX_VALUE){
+                throw new IOException("Columnar file larger than 2 GB " + fileName);
+            }
+            int footer = (int) counter.count;
+            out.writeInt(n);
+            out.writeInt(keyBlocks);
+            for (int offset : keyOffsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(scoreBlocks);
+            for (int b = 0; b < scoreBlocks; ++b) {
+                out.writeInt(scoreOffsets[b]);
+                out.writeInt(mins[b]);
+                out.writeInt(maxs[b]);
+                out.writeByte(widths[b]);
+            }
+
+            // Write the trailer
+            out.writeInt(footer);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    /**
+     * Compare two byte arrays as unsigned bytes, i.e., the order of the code points for UTF-8
+     */
+    static int compareBytes(byte[] a, byte[] b){
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; ++i) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(diff != 0){
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b){
+        int max = Math.min(a.length, b.length), i = 0;
+        while(i < max && a[i] == b[i]){
+            ++i;
+        }
+        return i;
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while((value & ~0x7F) != 0){
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * OutputStream counting the bytes written through it, for the offsets of the blocks
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count = 0;
+
+        CountingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
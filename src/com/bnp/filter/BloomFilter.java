@@ -0,0 +1,116 @@
+package com.bnp.filter;
+
+import java.util.Collection;
+
+/**
+ * BloomFilter class to test the membership of a large set of terms in a compact bit array
+ * A miss is exact, while a hit may be a false positive and has to be confirmed against the exact set
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class BloomFilter {
+
+    /**
+     * The number of bits set per term, about 1% false positives at 10 bits per term
+     */
+    private static final int HASHES = 7;
+
+    /**
+     * The bit array, the number of bits is a power of 2 so the positions are picked by a mask
+     */
+    private final long[] bits;
+    private final long mask;
+
+    /**
+     * C'stor
+     *
+     * @param terms the terms to be put in the filter
+     */
+    public BloomFilter(Collection<String> terms){
+
+        // 10 bits per term, between 64 bits and 8 GB, rounded up to a power of 2
+        long wanted = Math.min(Math.max(64L, 10L * terms.size()), 1L << 36);
+        long size = Long.highestOneBit(wanted - 1) << 1;
+
+        bits = new long[(int) (size >>> 6)];
+        mask = size - 1;
+
+        for (String term : terms) {
+            put(hash64(term));
+        }
+    }
+
+    /**
+     * Check if a term may be in the filter
+     *
+     * @param term the term to check
+     * @return false if the term is definitely not in the filter, true if it may be
+     */
+    public boolean mightContain(String term){
+        return mightContain(hash64(term));
+    }
+
+    /**
+     * Check if a term may be in the filter by its hash, so the hash can be reused to confirm a hit
+     *
+     * @param hash the hash of the term by hash64()
+     * @return false if the term is definitely not in the filter, true if it may be
+     */
+    public boolean mightContain(long hash){
+
+        // Derive the positions by double hashing, from the two halves of the hash
+        long h1 = hash, h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; ++i) {
+            long pos = (h1 + i * h2) & mask;
+            if((bits[(int) (pos >>> 6)] & (1L << pos)) == 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the filter in bytes
+     */
+    public long sizeInBytes(){
+        return bits.length * 8L;
+    }
+
+    private void put(long hash){
+        long h1 = hash, h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; ++i) {
+            long pos = (h1 + i * h2) & mask;
+            bits[(int) (pos >>> 6)] |= 1L << pos;
+        }
+    }
+
+    /**
+     * Returns a well mixed 64-bit hash of a term, i.e., FNV-1a over the chars followed by the MurmurHash3 finalizer
+     *
+     * @param term the term to hash
+     * @return the 64-bit hash
+     */
+    public static long hash64(CharSequence term){
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0, n = term.length(); i < n; ++i) {
+            h = (h ^ term.charAt(i)) * 0x100000001B3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer, spreading every input bit over the whole hash
+     *
+     * @param h the value to mix
+     * @return the mixed value
+     */
+    public static long mix64(long h){
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,225 @@
+package com.bnp.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * CompactTermSet class to test the exact membership of a large set of terms in a few flat arrays
+ * The terms are placed in an open-addressed table by their 64-bit hashes, the same hashes as the Bloom filter's,
+ *  and their UTF-8 bytes are packed one after another, each after its length, so there is no object per term.
+ * Each slot holds 32 bits of the hash next to the position of the term, so a lookup usually reads one slot
+ *  and compares one term, and the chars of the term looked up are compared to the packed bytes as they are,
+ *  without encoding them first.
+ * It takes about 12 bytes per term plus the bytes of the term itself, against about 100 bytes per term in a HashSet.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class CompactTermSet {
+
+    /**
+     * The highest share of the slots in use, so a lookup rarely walks past its first slot
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * The table, each slot holding the low 32 bits of the hash of a term and the position of the term plus 1, 0 if empty
+     * The size is not a power of 2, the first slot of a hash is picked by multiplying instead of masking
+     */
+    private final long[] slots;
+
+    /**
+     * The terms, each as a varint of its length followed by its UTF-8 bytes
+     */
+    private final byte[] bytes;
+
+    /**
+     * The number of distinct terms
+     */
+    private final int count;
+
+    /**
+     * C'stor
+     *
+     * @param terms the terms to be put in the set, duplicates are kept once
+     */
+    public CompactTermSet(Collection<String> terms){
+
+        slots = new long[Math.max(1, (int) Math.ceil(terms.size() / LOAD_FACTOR))];
+
+        // Encode the terms up front to size the packed bytes, 5 bytes at most for each length
+        byte[][] encoded = new byte[terms.size()][];
+        long length = 0;
+        int i = 0;
+        for (String term : terms) {
+            encoded[i] = term.getBytes(StandardCharsets.UTF_8);
+            length += encoded[i++].length + 5;
+        }
+        if(length >= Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Terms larger than 2 GB");
+        }
+
+        byte[] packed = new byte[(int) length];
+        int n = 0, pos = 0;
+        i = 0;
+        for (String term : terms) {
+            byte[] key = encoded[i++];
+            long hash = BloomFilter.hash64(term);
+
+            // Walk to the first empty slot, skipping a duplicate
+            int tag = (int) hash, s = home(hash);
+            boolean duplicate = false;
+            while(slots[s] != 0){
+                int start = (int) slots[s] - 1;
+                int len = readLength(packed, start);
+                int from = start + lengthSize(len);
+                if((int) (slots[s] >>> 32) == tag && Arrays.equals(packed, from, from + len, key, 0, key.length)){
+                    duplicate = true;
+                    break;
+                }
+                s = s + 1 == slots.length ? 0 : s + 1;
+            }
+            if(duplicate){
+                continue;
+            }
+
+            // Pack the term after its length and take the slot
+            slots[s] = ((long) tag << 32) | (pos + 1);
+            for (int v = key.length; ; v >>>= 7) {
+                if((v & ~0x7F) == 0){
+                    packed[pos++] = (byte) v;
+                    break;
+                }
+                packed[pos++] = (byte) ((v & 0x7F) | 0x80);
+            }
+            System.arraycopy(key, 0, packed, pos, key.length);
+            pos += key.length;
+            ++n;
+        }
+
+        count = n;
+        bytes = Arrays.copyOf(packed, pos);
+    }
+
+    /**
+     * Check if a term is in the set
+     *
+     * @param term the term to check
+     * @return true if the term is in the set
+     */
+    public boolean contains(String term){
+        return contains(term, BloomFilter.hash64(term));
+    }
+
+    /**
+     * Check if a term is in the set, using the hash computed for the Bloom filter already
+     *
+     * @param term the term to check
+     * @param hash the hash of the term by BloomFilter.hash64()
+     * @return true if the term is in the set
+     */
+    public boolean contains(String term, long hash){
+
+        int tag = (int) hash, s = home(hash);
+        while(true){
+            long slot = slots[s];
+            if(slot == 0){
+                return false;
+            }
+            if((int) (slot >>> 32) == tag && matches((int) slot - 1, term)){
+                return true;
+            }
+            s = s + 1 == slots.length ? 0 : s + 1;
+        }
+    }
+
+    /**
+     * Returns the number of terms in the set
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * Returns the size of the set in bytes
+     */
+    public long sizeInBytes(){
+        return slots.length * 8L + bytes.length;
+    }
+
+    /**
+     * Returns the first slot of a hash, from its high 32 bits scaled to the number of slots
+     */
+    private int home(long hash){
+        return (int) (((hash >>> 32) * slots.length) >>> 32);
+    }
+
+    /**
+     * Returns the length of the term packed at a position
+     */
+    private static int readLength(byte[] packed, int pos){
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = packed[pos++];
+            value |= (b & 0x7F) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a length as a varint
+     */
+    private static int lengthSize(int len){
+        int size = 1;
+        while((len >>>= 7) != 0){
+            ++size;
+        }
+        return size;
+    }
+
+    /**
+     * Compare the chars of a term to the UTF-8 bytes of the term packed at a position, encoding each char on the fly
+     * A lone surrogate is compared as "?", the same as String.getBytes() encodes it
+     */
+    private boolean matches(int start, String term){
+
+        int length = readLength(bytes, start);
+        int pos = start + lengthSize(length), end = pos + length;
+        for (int i = 0, n = term.length(); i < n; ++i) {
+            int c = term.charAt(i);
+
+            // Most of the terms are ASCII, one byte per char
+            if(c < 0x80){
+                if(pos == end || bytes[pos++] != c){
+                    return false;
+                }
+                continue;
+            }
+
+            if(Character.isHighSurrogate((char) c) && i + 1 < n && Character.isLowSurrogate(term.charAt(i + 1))){
+                c = Character.toCodePoint((char) c, term.charAt(++i));
+            } else if(Character.isSurrogate((char) c)){
+                if(pos == end || bytes[pos++] != '?'){
+                    return false;
+                }
+                continue;
+            }
+
+            // The lead byte, then 6 bits per continuation byte
+            int len = c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if(end - pos < len || bytes[pos] != (byte) ((0xF0 << (4 - len)) | (c >>> (6 * (len - 1))))){
+                return false;
+            }
+            for (int j = 1; j < len; ++j) {
+                if(bytes[pos + j] != (byte) (0x80 | ((c >>> (6 * (len - 1 - j))) & 0x3F))){
+                    return false;
+                }
+            }
+            pos += len;
+        }
+        return pos == end;
+    }
+}
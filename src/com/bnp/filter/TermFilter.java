@@ -0,0 +1,153 @@
+package com.bnp.filter;
+
+import com.bnp.logging.LogFile;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TermFilter class to drop the stopwords and the blocked terms before they are counted
+ * The deny list is checked by a Bloom filter first, so most of the accepted terms never reach the exact set,
+ *  and the terms on the allow list are always accepted even if they are on the deny list
+ * The exact sets are compact, i.e., an open-addressed table of hashes over packed bytes, so a large block list costs little more than its text,
+ *  and a term is hashed once for the Bloom filter and both exact sets
+ *
+ * The lists are text files with one term per line, lines starting with "#" are comments.
+ * They can be reloaded at runtime: the new lists are built aside and swapped in at once, without stopping the input.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+public class TermFilter {
+
+    /**
+     * The files of the lists, null if not used
+     */
+    private final String denyFile, allowFile;
+
+    /**
+     * The lists currently in use, replaced as a whole on reload
+     */
+    private volatile Lists lists;
+
+    /**
+     * An immutable version of the loaded lists
+     */
+    private static class Lists {
+        final BloomFilter denyFilter;
+        final CompactTermSet deny, allow;
+
+        Lists(BloomFilter denyFilter, CompactTermSet deny, CompactTermSet allow){
+            this.denyFilter = denyFilter;
+            this.deny = deny;
+            this.allow = allow;
+        }
+    }
+
+    /**
+     * C'stor
+     *
+     * @param denyFile the file of the terms to drop, null if none
+     * @param allowFile the file of the terms always accepted, null if none
+     */
+    public TermFilter(String denyFile, String allowFile){
+        this.denyFile = denyFile;
+        this.allowFile = allowFile;
+        reload();
+    }
+
+    /**
+     * Load the lists from the files again and swap them in
+     * A list that cannot be read is kept as it was
+     */
+    public void reload(){
+
+        Lists old = lists;
+        List<String> denyTerms = loadTerms(denyFile);
+        List<String> allowTerms = loadTerms(allowFile);
+
+        // Keep a list as it was if its file cannot be read
+        BloomFilter denyFilter;
+        CompactTermSet deny, allow;
+        if(denyTerms == null && old != null){
+            denyFilter = old.denyFilter;
+            deny = old.deny;
+        } else {
+            denyTerms = denyTerms == null ? Collections.emptyList() : denyTerms;
+            denyFilter = new BloomFilter(denyTerms);
+            deny = new CompactTermSet(denyTerms);
+        }
+        if(allowTerms == null && old != null){
+            allow = old.allow;
+        } else {
+            allow = new CompactTermSet(allowTerms == null ? Collections.emptyList() : allowTerms);
+        }
+
+        lists = new Lists(denyFilter, deny, allow);
+
+        LogFile.log(null, "info", "Loaded term filter with " + deny.size() + " denied and " + allow.size() + " allowed terms.");
+    }
+
+    /**
+     * Check if a keyword should be counted
+     *
+     * @param word the keyword in lower case
+     * @return true if accepted, false if dropped
+     */
+    public boolean accepts(String word){
+
+        Lists current = lists;
+        long hash = BloomFilter.hash64(word);
+
+        // Most of the keywords are not denied, and stop at the Bloom filter
+        if(!current.denyFilter.mightContain(hash)){
+            return true;
+        }
+
+        // Confirm the hit against the exact set with the same hash, and let the allow list override it
+        return !current.deny.contains(word, hash) || current.allow.contains(word, hash);
+    }
+
+    /**
+     * Returns the number of terms on the deny list
+     */
+    public int getDenySize(){
+        return lists.deny.size();
+    }
+
+    /**
+     * Load the terms from a file, one per line, in lower case
+     *
+     * @param fileName the file to load, null if none
+     * @return the terms, null if the file cannot be read
+     */
+    private static List<String> loadTerms(String fileName){
+
+        if(fileName == null){
+            return Collections.emptyList();
+        }
+
+        List<String> terms = new ArrayList<>();
+        String line;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
+            while ((line = br.readLine()) != null) {
+                String term = line.trim().toLowerCase();
+
+                // Skip the blank lines and the comments
+                if(!term.isEmpty() && !term.startsWith("#")) {
+                    terms.add(term);
+                }
+            }
+        } catch (IOException e) {
+            LogFile.log(e, "warning", "Cannot open term list " + fileName + ", keeping the previous terms.");
+            return null;
+        }
+
+        return terms;
+    }
+}
@@ -1,7 +1,9 @@
 package com.bnp.scorereporter;
 
+import com.bnp.admin.AdminServer;
 import com.bnp.logging.LogFile;
 
+import java.io.IOException;
 import java.util.Timer;
 
 /**
@@ -22,7 +24,7 @@ public class ReportScore extends Thread {
     /**
      * the Timer object to control the scheduled task
      */
-    volatile Timer timer = new Timer();
+    volatile Timer timer;
 
     /**
      * C'stor
@@ -51,27 +53,53 @@ public class ReportScore extends Thread {
      * End the timer
      */
     public void end(){
-        synchronized (timer){
-            if(timer != null) {
-                timer.cancel();
-                timer.purge();
+        Timer t = timer;
+        if(t != null) {
+            synchronized (t){
+                t.cancel();
+                t.purge();
             }
         }
     }
 
     /**
      * The process to initiate and run the scheduled reporting process and the on-demand trigger on two threads
+     * The on-demand reporting is served by the admin channel if "AdminPort" is configured, or by the console otherwise
      */
     public void report(){
 
         // Create a background thread to run the scheduled reporting
-        Thread thread1 = new ReportScore(sr);
+        ReportScore thread1 = new ReportScore(sr);
         thread1.start();
 
         LogFile.log(null, "info", "Scheduled reporting is running now.");
 
-        // Using the main thread to run the on-demand reporting
         ScoreReporter sr_byTrigger = new ScoreReporter(sr);
-        sr_byTrigger.triggerOutputFromConsole();
+        String adminPort = sr.getConfig("AdminPort");
+
+        if(adminPort != null) {
+            try {
+                // Serve the admin channel at background, and wait on the main thread until shut down from it
+                AdminServer admin = new AdminServer(Integer.parseInt(adminPort.trim()), sr_byTrigger, sr.getSearchScorer());
+                admin.start();
+                admin.awaitShutdown();
+                admin.stop();
+
+                // Stop the scheduled reporting
+                try {
+                    thread1.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                thread1.end();
+                end();
+            } catch (IOException | NumberFormatException ex) {
+                LogFile.log(ex, "severe", "Cannot open the admin channel on port " + adminPort + ", using the console instead.");
+                sr_byTrigger.triggerOutputFromConsole();
+            }
+        } else {
+            // Using the main thread to run the on-demand reporting
+            sr_byTrigger.triggerOutputFromConsole();
+        }
     }
 }
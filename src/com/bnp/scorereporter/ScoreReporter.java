@@ -1,5 +1,6 @@
 package com.bnp.scorereporter;
 
+import com.bnp.filter.TermFilter;
 import com.bnp.logging.LogFile;
 import com.bnp.searchscorersingleton.SearchScorerSingleton;
 
@@ -33,6 +34,7 @@ public class ScoreReporter extends TimerTask {
      * Default C'stor
      *
      * Default at 09:00:00 HKT, period is set to 24 hours, if there is no configuration file loaded
+     * The stopwords and the blocked terms are read from "cfg/DenyList.txt", with no allow list, unless configured
      */
     private ScoreReporter(){
         config = new LinkedHashMap<>();
@@ -40,6 +42,7 @@ public class ScoreReporter extends TimerTask {
         config.put("Timezone", "Asia/Hong_Kong");
         config.put("Frquency", "24");
         config.put("DIR", "D:");
+        config.put("DenyList", "cfg/DenyList.txt");
     }
 
     public ScoreReporter(SearchScorerSingleton ss){
@@ -84,26 +87,107 @@ public class ScoreReporter extends TimerTask {
         }
     }
 
+    /**
+     * Returns a configuration value
+     *
+     * @param key the parameter name
+     * @return the value, or null if not configured
+     */
+    public String getConfig(String key){
+        return config.get(key);
+    }
+
+    /**
+     * Returns the data storage reported from
+     *
+     * @return the data storage of Boogle Search
+     */
+    public SearchScorerSingleton getSearchScorer(){
+        return ss;
+    }
+
+    /**
+     * Install the term filter over the "DenyList" and "AllowList" files configured into the data storage
+     * A list is not used if configured as "NONE"
+     *
+     * @return the filter installed
+     */
+    public TermFilter installTermFilter(){
+        TermFilter filter = new TermFilter(listFile("DenyList"), listFile("AllowList"));
+        ss.setTermFilter(filter);
+        return filter;
+    }
+
+    /**
+     * Start counting the phrases of up to "NGrams" keywords, reported once counted "NGramThreshold" times (default 2)
+     * The phrases are not counted unless "NGrams" is configured
+     *
+     * @return true if the phrases are counted
+     */
+    public boolean installNGrams(){
+        String maxN = config.get("NGrams");
+        if(maxN == null){
+            return false;
+        }
+        try {
+            ss.enableNGrams(Integer.parseInt(maxN.trim()), Integer.parseInt(config.getOrDefault("NGramThreshold", "2").trim()));
+            return true;
+        } catch (NumberFormatException ex) {
+            LogFile.log(ex, "warning", "Invalid NGrams configuration " + maxN + ", phrases are not counted.");
+            return false;
+        }
+    }
+
+    /**
+     * Returns the file of a list configured, or null if not configured or configured as "NONE"
+     */
+    private String listFile(String key){
+        String file = config.get(key);
+        return file == null || file.trim().equalsIgnoreCase("NONE") ? null : file.trim();
+    }
+
     /**
      * Write the internal storage to the CSV file, named as "keyscore_yyyyMMdd.csv"
+     * The "ExportFormat" configuration picks CSV (default), COLUMNAR for "keyscore_yyyyMMdd.col" instead, or BOTH
+     *
+     * @return true if written, false if a file could not be written
      */
-    public void reportToCSV(){
+    public boolean reportToCSV(){
         String path = config.get("DIR");
         SimpleDateFormat timeParser = new SimpleDateFormat("yyyyMMdd");
         //SimpleDateFormat timeParser = new SimpleDateFormat("yyyyMMddHHmmss");
         Date time = new Date();
+        String format = config.getOrDefault("ExportFormat", "CSV").trim().toUpperCase();
         try {
-            ss.writeToCSV(path + "\\keyscore_" + timeParser.format(time) + ".csv");
+            if(!format.equals("COLUMNAR")) {
+                ss.writeToCSV(path + "\\keyscore_" + timeParser.format(time) + ".csv");
+            }
+
+            // Write the columnar file for the analytics readers
+            if(format.equals("COLUMNAR") || format.equals("BOTH")) {
+                ss.writeToColumnar(path + "\\keyscore_" + timeParser.format(time) + ".col");
+            }
+
+            // Report the phrases alongside, if counted
+            if(ss.isNGramEnabled()){
+                ss.writeNGramsToCSV(path + "\\keyphrase_" + timeParser.format(time) + ".csv");
+            }
         }
         catch(IOException ex){
-            // do nothing
+            // Already logged by the writer
+            return false;
         }
+        return true;
     }
 
     /**
      * On-demand trigger to report searching counts to the CSV file
      */
     public void triggerOutputFromConsole(){
+
+        // One scanner for the whole session, not closed as it would close the console
+        Scanner sc = new Scanner(System.in);
+
         while(true){
 
             // Wait before trigger the on-demand reporting for better display
@@ -116,7 +200,11 @@ public class ScoreReporter extends TimerTask {
             }
 
             System.out.println("Type Y and Enter to report immediately:");
-            Scanner sc = new Scanner(System.in);
+
+            // Stop at the end of the input, e.g., when running without a console
+            if(!sc.hasNext()){
+                break;
+            }
             String input = sc.next();
             if(input.equals("Y")){
                 reportToCSV();
@@ -0,0 +1,452 @@
+package com.bnp.searchscorersingleton;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * DecayingScores class to keep an exponentially decayed score per keyword, halving every half-life
+ *
+ * The scores are not rewritten as time passes. Each entry stores a raw value relative to a landmark time,
+ *  and its score at time t is raw * exp(-lambda * (t - landmark)), i.e., one global scale factor for all the entries.
+ * A new occurrence adds exp(lambda * (now - landmark)) to the raw value. When that factor grows too large,
+ *  the global landmark moves to now, and each entry is rebased onto it the next time it's counted.
+ *
+ * The entries are immutable, each count replaces the entry of a keyword as a whole while the keyword is locked,
+ *  so a score is always computed from a raw value and the landmark it's relative to, even while being rebased.
+ *
+ * The keywords are also grouped in levels by ln(raw) + lambda * landmark, i.e., the log of the score at any time
+ *  plus a term equal for all the keywords, so the order of the levels is the order of the decayed scores at any time.
+ * The levels never have to be sorted again as time passes, and a keyword only changes its level when counted,
+ *  once its score has grown by about 9%, so the top keywords are read from the highest levels without a full pass.
+ *
+ * A keyword expires once its score falls below the floor, or once it has not been seen for the TTL.
+ * Its expiry time is known in advance, so a background sweep only visits the keywords due in a priority queue.
+ * The sweep does not remove a keyword by itself: it asks the owner to, and the owner locks the keyword in its storage
+ *  and calls removeIfDue(), so a keyword counted meanwhile is never removed, and the locks are taken in the same order
+ *  as by the counting, i.e., the storage first.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+class DecayingScores {
+
+    /**
+     * The exponent of the scale factor at which the landmark moves, about 2.4e17
+     */
+    private static final double MAX_EXPONENT = 40.0;
+
+    /**
+     * The width of a level, the scores of the keywords of one level are within about 9% of each other
+     */
+    private static final double LEVEL_WIDTH = Math.log(2) / 8;
+
+    /**
+     * The decay rate per millisecond, ln(2) / half-life
+     */
+    private final double lambda;
+
+    /**
+     * The score below which a keyword expires, 0 for none
+     */
+    private final double floor;
+
+    /**
+     * The time after which an unseen keyword expires in milliseconds, 0 for none
+     */
+    private final long ttlMillis;
+
+    private final LongSupplier clock;
+
+    /**
+     * The time the levels are relative to, so the ordering keys stay small enough to be precise
+     */
+    private final long origin;
+
+    /**
+     * Called with each keyword due to expire, returns true if the owner has removed it through removeIfDue()
+     */
+    private final Predicate<String> onExpire;
+
+    /**
+     * The time the raw values of the entries counted lately are relative to
+     */
+    private volatile long landmark;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The keywords of each level in use, a level is removed once empty, and each level is updated while locked in the map
+     */
+    private final ConcurrentHashMap<Long, Set<String>> levels = new ConcurrentHashMap<>();
+
+    /**
+     * The levels in use in descending order, added and removed along with their keywords
+     */
+    private final ConcurrentSkipListSet<Long> ordered = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
+
+    /**
+     * The source of the generations of the keywords
+     */
+    private final AtomicLong generations = new AtomicLong();
+
+    /**
+     * The keywords in order of their expected expiry times, one element per keyword, locked on itself
+     */
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>();
+
+    /**
+     * The decayed score of one keyword, replaced as a whole while the keyword is locked in the map
+     */
+    private static class Entry {
+        final String word;
+        final double raw;
+        final long landmark;
+        final long lastSeen;
+        final long expireAt;
+
+        /**
+         * The level of the keyword, floor((ln(raw) + lambda * (landmark - origin)) / LEVEL_WIDTH)
+         */
+        final long level;
+
+        /**
+         * The generation of the keyword, new each time it's added, and kept by the entries replacing its entry
+         */
+        final long generation;
+
+        Entry(String word, double raw, long landmark, long lastSeen, long expireAt, long level, long generation){
+            this.word = word;
+            this.raw = raw;
+            this.landmark = landmark;
+            this.lastSeen = lastSeen;
+            this.expireAt = expireAt;
+            this.level = level;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The expected expiry of one keyword, ignored once the keyword is removed, even if added again
+     */
+    private static class Expiry implements Comparable<Expiry> {
+        final long at;
+        final String word;
+        final long generation;
+
+        Expiry(long at, String word, long generation){
+            this.at = at;
+            this.word = word;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Expiry other){
+            return Long.compare(at, other.at);
+        }
+    }
+
+    /**
+     * C'stor
+     *
+     * @param halfLifeMillis the time for a score to halve in milliseconds
+     * @param floor the score below which a keyword expires, 0 for none
+     * @param ttlMillis the time after which an unseen keyword expires in milliseconds, 0 for none
+     * @param clock the source of the current time in milliseconds
+     * @param onExpire called with each keyword due to expire, returns true if removed through removeIfDue()
+     */
+    DecayingScores(long halfLifeMillis, double floor, long ttlMillis, LongSupplier clock, Predicate<String> onExpire){
+        this.lambda = Math.log(2) / Math.max(1, halfLifeMillis);
+        this.floor = Math.max(0, floor);
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.clock = clock;
+        this.onExpire = onExpire;
+        this.landmark = clock.getAsLong();
+        this.origin = landmark;
+    }
+
+    /**
+     * Count occurrences of a keyword now
+     *
+     * @param word the keyword
+     * @param count the number of occurrences
+     */
+    void add(String word, int count){
+
+        long now = clock.getAsLong();
+        long mark = advanceLandmark(now);
+        double weight = count * Math.exp(lambda * (now - mark));
+
+        entries.compute(word, (key, entry) -> {
+
+            // Rebase onto the current landmark, lazily on access
+            double raw = weight;
+            if(entry != null){
+                raw += entry.landmark == mark ? entry.raw : entry.raw * Math.exp(-lambda * (mark - entry.landmark));
+            }
+
+            Entry counted = newEntry(key, raw, mark, now, entry);
+            moveLevel(key, entry, counted);
+
+            // Only a new keyword is queued, a counted one is queued again by the sweep if not due yet
+            if(entry == null && counted.expireAt != Long.MAX_VALUE){
+                queue(counted);
+            }
+            return counted;
+        });
+    }
+
+    /**
+     * Set the score of an existing keyword to its count as seen now, when the decay is enabled
+     * It replaces any score counted since the decay was enabled, as the count includes those occurrences,
+     *  so it's called while holding the lock of the keyword in the storage, and calling it twice changes nothing
+     *
+     * @param word the keyword
+     * @param count the count of the keyword in the storage
+     */
+    void seed(String word, int count){
+
+        long now = clock.getAsLong();
+        long mark = advanceLandmark(now);
+
+        // Start a new generation, so the expiry of a replaced entry is then ignored
+        Entry entry = newEntry(word, count * Math.exp(lambda * (now - mark)), mark, now, null);
+        moveLevel(word, entries.put(word, entry), entry);
+
+        if(entry.expireAt != Long.MAX_VALUE){
+            queue(entry);
+        }
+    }
+
+    /**
+     * Drop the decayed score of a keyword removed from the storage, its queued expiry is then ignored
+     *
+     * @param word the keyword
+     */
+    void remove(String word){
+        entries.computeIfPresent(word, (key, entry) -> {
+            moveLevel(key, entry, null);
+            return null;
+        });
+    }
+
+    /**
+     * Remove a keyword if it's due to expire now, or queue it again at its new expiry time if counted since queued
+     * Called by the owner while holding the lock of the keyword in its storage
+     *
+     * @param word the keyword
+     * @return true if removed
+     */
+    boolean removeIfDue(String word){
+
+        long now = clock.getAsLong();
+        boolean[] removed = new boolean[1];
+
+        entries.computeIfPresent(word, (key, entry) -> {
+            if(entry.expireAt > now){
+                // Counted since queued, queue it again at its new expiry time
+                queue(entry);
+                return entry;
+            }
+            moveLevel(key, entry, null);
+            removed[0] = true;
+            return null;
+        });
+
+        return removed[0];
+    }
+
+    /**
+     * Returns the decayed score of a keyword now
+     *
+     * @param word the keyword
+     * @return the score, 0 if the keyword does not exist
+     */
+    double score(String word){
+        Entry entry = entries.get(word);
+        return entry == null ? 0 : scoreOf(entry, clock.getAsLong());
+    }
+
+    /**
+     * Returns the keywords of the highest decayed scores now, from the highest levels down until k keywords are found
+     * Like the iteration of a ConcurrentHashMap, it's weakly consistent with the counting meanwhile
+     *
+     * @param k the number of keywords to return
+     * @return the keywords and their scores in descending order of the scores
+     */
+    List<Map.Entry<String, Double>> getTop(int k){
+
+        long now = clock.getAsLong();
+        List<Map.Entry<String, Double>> list = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        // The keywords of a level all score higher than the keywords of the levels below, so whole levels are taken
+        for (Long level : ordered) {
+            if(list.size() >= k){
+                break;
+            }
+            Set<String> words = levels.get(level);
+            if(words == null){
+                continue;
+            }
+
+            // Skip a keyword removed, or seen in its new level already, meanwhile,
+            //  and score a keyword counted meanwhile as of its last count
+            for (String word : words) {
+                Entry entry = entries.get(word);
+                if(entry != null && seen.add(word)){
+                    list.add(new AbstractMap.SimpleImmutableEntry<>(word, scoreOf(entry, Math.max(now, entry.lastSeen))));
+                }
+            }
+        }
+
+        // Only the keywords of the levels taken are sorted
+        list.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        return list.size() > k ? new ArrayList<>(list.subList(0, k)) : list;
+    }
+
+    /**
+     * Remove the keywords due to expire, visiting only the keywords at the head of the queue
+     *
+     * @return the number of keywords removed
+     */
+    int expire(){
+
+        long now = clock.getAsLong();
+        int total = 0;
+
+        while(true){
+            Expiry due;
+            synchronized (expiries){
+                due = expiries.peek();
+                if(due == null || due.at > now){
+                    return total;
+                }
+                expiries.poll();
+            }
+
+            // Skip a keyword removed, or removed and counted again, since queued
+            Entry entry = entries.get(due.word);
+            if(entry == null || entry.generation != due.generation){
+                continue;
+            }
+
+            // Let the owner remove the keyword from its storage along with the entry
+            if(onExpire.test(due.word)){
+                ++total;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keywords with a decayed score
+     */
+    int size(){
+        return entries.size();
+    }
+
+    void clear(){
+        entries.clear();
+        levels.clear();
+        ordered.clear();
+        synchronized (expiries){
+            expiries.clear();
+        }
+    }
+
+    private double scoreOf(Entry entry, long now){
+        return entry.raw * Math.exp(-lambda * (now - entry.landmark));
+    }
+
+    /**
+     * Returns a new entry of a keyword, in the generation of the entry it replaces, or in a new one if none
+     */
+    private Entry newEntry(String word, double raw, long landmark, long lastSeen, Entry replaced){
+        long generation = replaced == null ? generations.incrementAndGet() : replaced.generation;
+        long level = (long) Math.floor((Math.log(raw) + lambda * (landmark - origin)) / LEVEL_WIDTH);
+        return new Entry(word, raw, landmark, lastSeen, expiryOf(raw, landmark, lastSeen), level, generation);
+    }
+
+    /**
+     * Move a keyword from the level of its old entry to the level of its new entry, if changed
+     * Called while holding the lock of the keyword in the map, each level is updated while locked in the levels,
+     *  so a level is never removed while a keyword is added to it
+     *
+     * @param word the keyword
+     * @param from the old entry, null if none
+     * @param to the new entry, null if removed
+     */
+    private void moveLevel(String word, Entry from, Entry to){
+
+        if(from != null && to != null && from.level == to.level){
+            return;
+        }
+
+        // Add to the new level first, so the keyword is never missing from both
+        if(to != null){
+            levels.compute(to.level, (level, words) -> {
+                if(words == null){
+                    words = ConcurrentHashMap.newKeySet();
+                    ordered.add(level);
+                }
+                words.add(word);
+                return words;
+            });
+        }
+        if(from != null){
+            levels.computeIfPresent(from.level, (level, words) -> {
+                words.remove(word);
+                if(words.isEmpty()){
+                    ordered.remove(level);
+                    return null;
+                }
+                return words;
+            });
+        }
+    }
+
+    /**
+     * Returns the time a keyword is expected to expire if not counted again
+     */
+    private long expiryOf(double raw, long landmark, long lastSeen){
+
+        long at = Long.MAX_VALUE;
+
+        // The score falls below the floor at landmark + ln(raw / floor) / lambda
+        if(floor > 0){
+            double millis = landmark + Math.log(raw / floor) / lambda;
+            at = (long) Math.min(Math.ceil(millis), (double) Long.MAX_VALUE);
+        }
+        if(ttlMillis > 0){
+            at = Math.min(at, lastSeen + ttlMillis);
+        }
+        return at;
+    }
+
+    /**
+     * Move the landmark to now if the scale factor has grown too large
+     *
+     * @return the landmark to use
+     */
+    private long advanceLandmark(long now){
+        long mark = landmark;
+        if(lambda * (now - mark) > MAX_EXPONENT){
+            synchronized (this){
+                if(lambda * (now - landmark) > MAX_EXPONENT){
+                    landmark = now;
+                }
+                mark = landmark;
+            }
+        }
+        return mark;
+    }
+
+    private void queue(Entry entry){
+        synchronized (expiries){
+            expiries.add(new Expiry(entry.expireAt, entry.word, entry.generation));
+        }
+    }
+}
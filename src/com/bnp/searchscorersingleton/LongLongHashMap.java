@@ -0,0 +1,196 @@
+package com.bnp.searchscorersingleton;
+
+/**
+ * LongLongHashMap class to map primitive long keys to long values without boxing
+ * It's an open-addressing table with linear probing, not thread-safe, i.e., the caller has to lock it
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+class LongLongHashMap {
+
+    /**
+     * Visitor of the entries, to iterate without allocating an entry per key
+     */
+    interface Visitor {
+        void visit(long key, long value);
+    }
+
+    /**
+     * The keys and the values, a key of 0 marks an empty slot
+     */
+    private long[] keys, values;
+
+    /**
+     * The key 0 is stored aside, as it marks the empty slots
+     */
+    private boolean hasZero;
+    private long zeroValue;
+
+    private int size;
+
+    /**
+     * C'stor
+     *
+     * @param expected the expected number of keys
+     */
+    LongLongHashMap(int expected){
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    /**
+     * Add a delta to the value of a key, putting the key with the delta if it does not exist
+     *
+     * @param key the key
+     * @param delta the delta to add
+     * @return the new value
+     */
+    long addTo(long key, long delta){
+
+        if(key == 0){
+            if(!hasZero){
+                hasZero = true;
+                ++size;
+            }
+            return zeroValue += delta;
+        }
+
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            if(keys[i] == key){
+                return values[i] += delta;
+            }
+            if(keys[i] == 0){
+                keys[i] = key;
+                values[i] = delta;
+
+                // Keep the load factor under 0.6
+                if(++size * 5 > keys.length * 3){
+                    grow();
+                }
+                return delta;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a key, 0 if it does not exist
+     */
+    long get(long key){
+
+        if(key == 0){
+            return zeroValue;
+        }
+
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if(keys[i] == key){
+                return values[i];
+            }
+        }
+        return 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    void clear(){
+        keys = new long[16];
+        values = new long[16];
+        hasZero = false;
+        zeroValue = 0;
+        size = 0;
+    }
+
+    /**
+     * Remove the entries of values less than a threshold, and shrink the table to fit the rest
+     *
+     * @param x the threshold value
+     * @param removed visitor of each entry removed, before the table is rebuilt
+     * @return the number of entries removed
+     */
+    int removeBelow(long x, Visitor removed){
+
+        int before = size;
+        long[] oldKeys = keys, oldValues = values;
+        int kept = 0;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if(oldKeys[j] != 0){
+                if(oldValues[j] < x){
+                    removed.visit(oldKeys[j], oldValues[j]);
+                } else {
+                    ++kept;
+                }
+            }
+        }
+        if(hasZero && zeroValue < x){
+            removed.visit(0, zeroValue);
+            hasZero = false;
+            zeroValue = 0;
+        }
+
+        // Re-insert the rest into a table sized for them, as linear probing cannot leave holes in a chain
+        int capacity = Integer.highestOneBit(Math.max(16, kept * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if(oldKeys[j] != 0 && oldValues[j] >= x){
+                int i = slot(oldKeys[j], mask);
+                while(keys[i] != 0){
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        size = kept + (hasZero ? 1 : 0);
+        return before - size;
+    }
+
+    /**
+     * Visit all the entries
+     */
+    void forEach(Visitor visitor){
+        if(hasZero){
+            visitor.visit(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            if(keys[i] != 0){
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the first slot to probe, the keys are hashes already so the low bits are used directly
+     */
+    private static int slot(long key, int mask){
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Double the table and re-insert the keys
+     */
+    private void grow(){
+        long[] oldKeys = keys, oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        int mask = keys.length - 1;
+
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if(oldKeys[j] != 0){
+                int i = slot(oldKeys[j], mask);
+                while(keys[i] != 0){
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
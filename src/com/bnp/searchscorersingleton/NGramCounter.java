@@ -0,0 +1,186 @@
+package com.bnp.searchscorersingleton;
+
+import com.bnp.filter.BloomFilter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * NGramCounter class to count the phrases of 2 or more consecutive keywords
+ * Each phrase is identified by a 64-bit hash combined from the hashes of its keywords, and counted in primitive tables,
+ *  so no String is built per phrase. The text is kept only for the phrases counted at least the threshold times.
+ * The tables only grow while counting, prune() removes the phrases of low counts along with their text and shrinks them.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+class NGramCounter {
+
+    /**
+     * The number of independently locked tables, so the threads counting different phrases rarely wait for each other
+     */
+    private static final int SEGMENTS = 64;
+
+    /**
+     * The longest phrase counted, e.g., 3 for trigrams
+     */
+    private final int maxN;
+
+    /**
+     * The count a phrase needs to reach to have its text kept
+     */
+    private final int textThreshold;
+
+    /**
+     * The counts of the phrases, keyed by the hash, each table is locked on itself
+     */
+    private final LongLongHashMap[] segments = new LongLongHashMap[SEGMENTS];
+
+    /**
+     * The text of the phrases over the threshold, keyed by the hash
+     */
+    private final ConcurrentHashMap<Long, String> texts = new ConcurrentHashMap<>();
+
+    /**
+     * C'stor
+     *
+     * @param maxN the longest phrase counted, at least 2
+     * @param textThreshold the count a phrase needs to reach to have its text kept, at least 1
+     */
+    NGramCounter(int maxN, int textThreshold){
+        this.maxN = Math.max(2, maxN);
+        this.textThreshold = Math.max(1, textThreshold);
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new LongLongHashMap(1024);
+        }
+    }
+
+    /**
+     * Count all the phrases of the keywords of one search term
+     *
+     * @param words the keywords in order
+     * @param count the number of keywords used in the array
+     */
+    void add(String[] words, int count){
+
+        if(count < 2){
+            return;
+        }
+
+        // Hash each keyword once, and combine the hashes for every phrase starting from it
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; ++i) {
+            hashes[i] = BloomFilter.hash64(words[i]);
+        }
+
+        for (int i = 0; i < count - 1; ++i) {
+            long combined = hashes[i];
+            for (int n = 2; n <= maxN && i + n <= count; ++n) {
+                combined = Long.rotateLeft(combined, 21) ^ hashes[i + n - 1];
+                long hash = BloomFilter.mix64(combined ^ n);
+
+                LongLongHashMap segment = segments[(int) (hash >>> 58)];
+                synchronized (segment) {
+
+                    // Keep the text once the phrase reaches the threshold, under the lock so prune() never leaves it behind
+                    if(segment.addTo(hash, 1) == textThreshold){
+                        texts.putIfAbsent(hash, String.join(" ", Arrays.asList(words).subList(i, i + n)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the phrases of the highest counts, among the phrases with the text kept
+     *
+     * @param k the number of phrases to return
+     * @return the phrases and their counts, in descending order of the counts
+     */
+    List<Map.Entry<String, Long>> getTop(int k){
+
+        // Keep the k highest counts in a min-heap
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+
+        forEach((text, value) -> {
+            if(heap.size() < k){
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(text, value));
+            } else if(k > 0 && value > heap.peek().getValue()){
+                heap.poll();
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(text, value));
+            }
+        });
+
+        List<Map.Entry<String, Long>> list = new ArrayList<>(heap);
+        list.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return list;
+    }
+
+    /**
+     * Visit the phrases with the text kept and their counts
+     */
+    void forEach(ObjLongConsumer<String> visitor){
+        for (LongLongHashMap segment : segments) {
+
+            // Copy the counts of one table at a time, so the counting is blocked only for a short while
+            List<long[]> entries = new ArrayList<>();
+            synchronized (segment) {
+                segment.forEach((hash, value) -> {
+                    if(value >= textThreshold){
+                        entries.add(new long[]{hash, value});
+                    }
+                });
+            }
+
+            for (long[] entry : entries) {
+                String text = texts.get(entry[0]);
+                if(text != null){
+                    visitor.accept(text, entry[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct phrases counted
+     */
+    long size(){
+        long total = 0;
+        for (LongLongHashMap segment : segments) {
+            synchronized (segment) {
+                total += segment.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Remove the phrases counted less than x times, along with their text
+     *
+     * @param x the threshold count
+     * @return the number of phrases removed
+     */
+    long prune(long x){
+        long total = 0;
+        for (LongLongHashMap segment : segments) {
+            synchronized (segment) {
+                total += segment.removeBelow(x, (hash, value) -> {
+                    if(value >= textThreshold){
+                        texts.remove(hash);
+                    }
+                });
+            }
+        }
+        return total;
+    }
+
+    void clear(){
+        for (LongLongHashMap segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        texts.clear();
+    }
+}
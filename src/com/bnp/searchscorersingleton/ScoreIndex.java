@@ -0,0 +1,378 @@
+package com.bnp.searchscorersingleton;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ScoreIndex class to answer the rank and the count distribution queries without sorting the storage
+ * The keywords are grouped in buckets by their counts, and a Fenwick tree over the counts holds the bucket sizes,
+ *  so "how many keywords have a count of at least n" is a prefix sum in O(log n).
+ *
+ * The Fenwick tree covers the counts up to MAX_TREE_COUNT, and is updated by atomic additions without any lock.
+ * The few keywords counted more often than that are counted per count in a sorted map of their own.
+ *
+ * The bucket members are split into stripes by the keywords, each stripe locked on its own.
+ * A bucket is an array with a position per member, so a keyword moves to its new bucket in O(1) without comparing
+ *  any keywords, and the n-th member of a bucket is found without walking the bucket.
+ * The keywords of the same count are therefore in no particular order, but in the same order between two updates.
+ *
+ * The caller updates the index while holding the lock of the keyword in the storage, so the updates of one keyword
+ *  arrive in order, and each update moves the keyword from the bucket it's actually in. The queries never hold more than one stripe at a time, so they never stall the input,
+ *  and a query running along with the updates may miss a keyword moving meanwhile, or see it twice.
+ *
+ * @version     %I%, %G%
+ * @since       1.1
+ */
+class ScoreIndex {
+
+    /**
+     * The highest count held by the Fenwick tree, 4 MB of tree
+     */
+    static final int MAX_TREE_COUNT = 1 << 20;
+
+    /**
+     * The number of stripes of the bucket members, a power of 2
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * The Fenwick tree of the bucket sizes, 1-based, tree[i] sums the buckets (i - lowbit(i), i]
+     * The root tree[MAX_TREE_COUNT] holds the number of keywords in the tree
+     */
+    private final AtomicIntegerArray tree = new AtomicIntegerArray(MAX_TREE_COUNT + 1);
+
+    /**
+     * The number of keywords of each count above MAX_TREE_COUNT
+     */
+    private final ConcurrentSkipListMap<Integer, Integer> highCounts = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger highTotal = new AtomicInteger();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * The bucket members of the keywords of one stripe, locked on itself
+     */
+    private static class Stripe {
+
+        /**
+         * The buckets of the stripe by their counts
+         */
+        final HashMap<Integer, Bucket> buckets = new HashMap<>();
+
+        /**
+         * The member of each keyword of the stripe, holding its position in its bucket
+         */
+        final HashMap<String, Member> members = new HashMap<>();
+    }
+
+    private static class Bucket {
+        final int count;
+        Member[] members = new Member[4];
+        int size = 0;
+
+        Bucket(int count){
+            this.count = count;
+        }
+    }
+
+    /**
+     * A keyword with its bucket and its position in the bucket, so it's removed without looking up the bucket
+     */
+    private static class Member {
+        final String word;
+        Bucket bucket;
+        int pos;
+
+        Member(String word){
+            this.word = word;
+        }
+    }
+
+    /**
+     * C'stor
+     */
+    ScoreIndex(){
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Move a keyword from the count it's indexed at to its new count
+     * The old count is read from the bucket of the keyword rather than trusted from the caller,
+     *  so indexing a keyword at the count it already has changes nothing
+     *
+     * @param word the keyword
+     * @param newCount the new count, 0 if the keyword is removed
+     */
+    void update(String word, int newCount){
+
+        int oldCount;
+
+        // Move the member between the buckets of its stripe
+        Stripe stripe = stripeOf(word);
+        synchronized (stripe){
+            Member member = stripe.members.get(word);
+            oldCount = member == null ? 0 : member.bucket.count;
+            if(oldCount == newCount){
+                return;
+            }
+            if(member != null){
+                removeMember(stripe, member);
+            }
+            if(newCount > 0){
+                if(member == null){
+                    member = new Member(word);
+                    stripe.members.put(word, member);
+                }
+                addMember(stripe, newCount, member);
+            } else if(member != null){
+                stripe.members.remove(word);
+            }
+        }
+
+        // Move the count between the buckets of the tree, skipping the nodes covering both counts
+        int from = oldCount > MAX_TREE_COUNT ? 0 : oldCount;
+        int to = newCount > MAX_TREE_COUNT ? 0 : newCount;
+        moveInTree(from, to);
+
+        if(oldCount > MAX_TREE_COUNT){
+            highCounts.computeIfPresent(oldCount, (key, n) -> n == 1 ? null : n - 1);
+            highTotal.decrementAndGet();
+        }
+        if(newCount > MAX_TREE_COUNT){
+            highCounts.merge(newCount, 1, Integer::sum);
+            highTotal.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of keywords with a count of at least n
+     *
+     * @param n the count threshold
+     * @return the number of keywords
+     */
+    int countAtLeast(int n){
+
+        if(n > MAX_TREE_COUNT){
+            int total = 0;
+            for (int size : highCounts.tailMap(n).values()) {
+                total += size;
+            }
+            return total;
+        }
+
+        return treeTotal() - prefix(Math.max(0, n - 1)) + highTotal.get();
+    }
+
+    /**
+     * Returns the keywords in descending order of the counts
+     *
+     * @param offset the number of keywords to skip, 0 for the highest
+     * @param limit the maximum number of keywords to return
+     * @return the keywords and their counts
+     */
+    List<Map.Entry<String, Integer>> page(int offset, int limit){
+
+        List<Map.Entry<String, Integer>> list = new ArrayList<>();
+        int skip = Math.max(0, offset);
+
+        // The high counts come first
+        for (Map.Entry<Integer, Integer> high : highCounts.descendingMap().entrySet()) {
+            if(list.size() >= limit){
+                return list;
+            }
+            if(skip >= high.getValue()){
+                skip -= high.getValue();
+            } else {
+                skip = collect(high.getKey(), skip, limit, list);
+            }
+        }
+
+        int total = treeTotal();
+        if(skip >= total){
+            return list;
+        }
+
+        // Jump straight to the bucket holding the first keyword wanted, i.e., the lowest count c with prefix(c) > total - skip - 1
+        int c = search(total - skip);
+        skip = Math.max(0, skip - (total - prefix(c)));
+
+        // Walk down the non-empty buckets
+        while(c > 0 && list.size() < limit){
+            skip = collect(c, skip, limit, list);
+            int below = prefix(c - 1);
+            c = below <= 0 ? 0 : Math.min(search(below), c - 1);
+        }
+
+        return list;
+    }
+
+    /**
+     * Returns the keywords with a count below x, without looking at the other keywords
+     *
+     * @param x the count threshold
+     * @return the keywords and their counts
+     */
+    List<Map.Entry<String, Integer>> below(int x){
+
+        List<Map.Entry<String, Integer>> list = new ArrayList<>();
+
+        // Walk up the non-empty buckets of the tree
+        int c = 0;
+        while(c < MAX_TREE_COUNT){
+            int seen = prefix(c);
+            if(seen >= treeTotal()){
+                break;
+            }
+            c = Math.max(search(seen + 1), c + 1);
+            if(c >= x){
+                return list;
+            }
+            collect(c, 0, Integer.MAX_VALUE, list);
+        }
+
+        for (Integer high : highCounts.headMap(x).keySet()) {
+            collect(high, 0, Integer.MAX_VALUE, list);
+        }
+
+        return list;
+    }
+
+    void clear(){
+        for (Stripe stripe : stripes) {
+            synchronized (stripe){
+                stripe.buckets.clear();
+                stripe.members.clear();
+            }
+        }
+        for (int i = 0; i < tree.length(); ++i) {
+            tree.set(i, 0);
+        }
+        highCounts.clear();
+        highTotal.set(0);
+    }
+
+    private Stripe stripeOf(String word){
+        int h = word.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static void addMember(Stripe stripe, int count, Member member){
+        Bucket bucket = stripe.buckets.computeIfAbsent(count, Bucket::new);
+        if(bucket.size == bucket.members.length){
+            bucket.members = Arrays.copyOf(bucket.members, bucket.size * 2);
+        }
+        member.bucket = bucket;
+        member.pos = bucket.size;
+        bucket.members[bucket.size++] = member;
+    }
+
+    /**
+     * Remove a member from its bucket, moving the last member of the bucket into its place
+     */
+    private static void removeMember(Stripe stripe, Member member){
+        Bucket bucket = member.bucket;
+        if(bucket == null){
+            return;
+        }
+        member.bucket = null;
+        Member last = bucket.members[--bucket.size];
+        bucket.members[member.pos] = last;
+        last.pos = member.pos;
+        bucket.members[bucket.size] = null;
+        if(bucket.size == 0){
+            stripe.buckets.remove(bucket.count);
+        }
+    }
+
+    /**
+     * Append the members of a count to the list, after skipping some of them, a stripe at a time
+     *
+     * @return the number of keywords still to skip
+     */
+    private int collect(int count, int skip, int limit, List<Map.Entry<String, Integer>> list){
+
+        for (Stripe stripe : stripes) {
+            if(list.size() >= limit){
+                break;
+            }
+            synchronized (stripe){
+                Bucket bucket = stripe.buckets.get(count);
+                if(bucket == null){
+                    continue;
+                }
+                if(skip >= bucket.size){
+                    skip -= bucket.size;
+                    continue;
+                }
+                for (int i = skip; i < bucket.size && list.size() < limit; ++i) {
+                    list.add(new AbstractMap.SimpleImmutableEntry<>(bucket.members[i].word, count));
+                }
+                skip = 0;
+            }
+        }
+        return skip;
+    }
+
+    /**
+     * Remove a keyword from the bucket of a count and add it to the bucket of another count, 0 for none
+     * The update paths of the two counts join at their common ancestor, above which the changes cancel out,
+     *  so the usual move by 1 touches a node or two instead of the whole path up to the root
+     */
+    private void moveInTree(int from, int to){
+        int i = from == 0 ? Integer.MAX_VALUE : from, j = to == 0 ? Integer.MAX_VALUE : to;
+        while(i != j){
+            if(i < j){
+                tree.addAndGet(i, -1);
+                i = next(i);
+            } else {
+                tree.addAndGet(j, 1);
+                j = next(j);
+            }
+        }
+    }
+
+    /**
+     * Returns the next node on the update path, or Integer.MAX_VALUE past the root
+     */
+    private static int next(int i){
+        int n = i + (i & -i);
+        return n > MAX_TREE_COUNT ? Integer.MAX_VALUE : n;
+    }
+
+    /**
+     * Returns the number of keywords in the tree
+     */
+    private int treeTotal(){
+        return tree.get(MAX_TREE_COUNT);
+    }
+
+    /**
+     * Returns the number of keywords in the tree with a count of at most i
+     */
+    private int prefix(int i){
+        int sum = 0;
+        for (; i > 0; i -= i & -i) {
+            sum += tree.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the lowest count c with prefix(c) >= target, by descending the tree from the root
+     */
+    private int search(int target){
+        int pos = 0;
+        for (int step = MAX_TREE_COUNT; step > 0; step >>= 1) {
+            if(pos + step <= MAX_TREE_COUNT && tree.get(pos + step) < target){
+                pos += step;
+                target -= tree.get(pos);
+            }
+        }
+        return Math.min(pos + 1, MAX_TREE_COUNT);
+    }
+}
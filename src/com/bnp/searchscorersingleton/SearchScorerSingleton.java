@@ -1,5 +1,7 @@
 package com.bnp.searchscorersingleton;
 
+import com.bnp.columnar.ColumnarWriter;
+import com.bnp.filter.TermFilter;
 import com.bnp.logging.LogFile;
 
 import java.io.FileWriter;
@@ -7,6 +9,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.LongSupplier;
 
 /**
  * SearchScorerSingleton class to store the keywords and their counts
@@ -29,6 +32,41 @@ public class SearchScorerSingleton {
      */
     private ConcurrentHashMap<String, Integer> map;
 
+    /**
+     * Pending count deltas of the keywords since the last drain, only tracked when running as a cluster node
+     * Null when the delta tracking is disabled, so a standalone process pays nothing for it
+     */
+    private volatile ConcurrentHashMap<String, Integer> deltas;
+
+    /**
+     * The filter of the stopwords and the blocked terms, applied before counting
+     * Null when no filter is set, so every keyword is counted
+     */
+    private volatile TermFilter filter;
+
+    /**
+     * The counter of the phrases, i.e., bigrams, trigrams, etc.
+     * Null when the phrase counting is disabled
+     */
+    private volatile NGramCounter ngrams;
+
+    /**
+     * The index of the keywords by their counts, for the rank and the count distribution queries
+     * Null when the index is disabled
+     */
+    private volatile ScoreIndex index;
+
+    /**
+     * The time-decayed scores of the keywords, expiring the keywords no longer active
+     * Null when the decay is disabled
+     */
+    private volatile DecayingScores decay;
+
+    /**
+     * The background thread removing the expired keywords, while the decay is enabled
+     */
+    private ScheduledExecutorService decaySweeper;
+
     /**
      * C'stor
      */
@@ -70,19 +108,49 @@ public class SearchScorerSingleton {
             // Trim and split the term into keywords
             String[] wordArray = term.trim().split(" ");
 
+            // Use the same filter for the whole term, even if it's reloaded meanwhile
+            TermFilter termFilter = filter;
+
+            // Keep the counted keywords in order for the phrases, if counted
+            NGramCounter phraseCounter = ngrams;
+            String[] keywords = phraseCounter != null ? new String[wordArray.length] : null;
+            int keywordCount = 0;
+
             // Store and count each of the keywords
             for (String word : wordArray) {
 
                 // Filter out the key with value ""
                 if(!word.equals("")) {
 
+                    String keyword = word.toLowerCase();
+
+                    // Drop the denied keyword without touching the storage
+                    if(termFilter != null && !termFilter.accepts(keyword)){
+
+                        // No phrase spans a dropped keyword, so count the phrases before it as a segment of their own
+                        if(keywords != null){
+                            phraseCounter.add(keywords, keywordCount);
+                            keywordCount = 0;
+                        }
+                        continue;
+                    }
+
                     // Store and count the keyword
-                    incrementCount(word.toLowerCase());
+                    incrementCount(keyword);
+
+                    if(keywords != null){
+                        keywords[keywordCount++] = keyword;
+                    }
 
                 }
 
             }
 
+            // Count the phrases of the consecutive keywords after the last dropped one
+            if(phraseCounter != null){
+                phraseCounter.add(keywords, keywordCount);
+            }
+
         }
 
     }
@@ -95,16 +163,472 @@ public class SearchScorerSingleton {
      */
     private Object incrementCount(String word){
 
-        // If the key exists, atomically compute the new count of the keywords, i.e., increment by 1
-        map.computeIfPresent(word.toLowerCase(), (key, val) -> ++val);
-
-        // If the key does not exist, atomically put the keywords with count = 1
-        map.putIfAbsent(word.toLowerCase(), 1);
+        // Atomically increment the count, move the keyword to its new bucket, count its decayed score
+        //  and record the delta to be shipped to the aggregator, while holding the lock of the key,
+        //  so the sweeper never removes a keyword being counted and resetDeltas() sees the count and the delta together
+        // The features are read under the lock too, so a feature enabled meanwhile either sees this increment
+        //  when it seeds the keyword, or is updated here after seeding it
+        map.compute(word.toLowerCase(), (key, val) -> {
+            int count = val == null ? 0 : val;
+
+            ScoreIndex scoreIndex = index;
+            if(scoreIndex != null){
+                scoreIndex.update(key, count + 1);
+            }
+            DecayingScores decayingScores = decay;
+            if(decayingScores != null){
+                decayingScores.add(key, 1);
+            }
+            ConcurrentHashMap<String, Integer> pending = deltas;
+            if(pending != null){
+                pending.merge(key, 1, Integer::sum);
+            }
+            return count + 1;
+        });
 
         // Arbitrary return null, as requested by the requirement
         return null;
     }
 
+    /**
+     * Set the filter of the keywords applied before counting
+     *
+     * @param filter the filter to apply, null to count every keyword
+     */
+    public void setTermFilter(TermFilter filter){
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the filter of the keywords applied before counting, null if none
+     */
+    public TermFilter getTermFilter(){
+        return filter;
+    }
+
+    /**
+     * Start counting the phrases of consecutive keywords along with the single keywords
+     *
+     * @param maxN the longest phrase counted, e.g., 3 for bigrams and trigrams
+     * @param textThreshold the count a phrase needs to reach to be reported, its text is not kept before that
+     */
+    public void enableNGrams(int maxN, int textThreshold){
+        ngrams = new NGramCounter(maxN, textThreshold);
+    }
+
+    /**
+     * Stop counting the phrases, dropping the phrase counts
+     */
+    public void disableNGrams(){
+        ngrams = null;
+    }
+
+    /**
+     * Check if the phrases are counted
+     *
+     * @return true if counted, false if not
+     */
+    public boolean isNGramEnabled(){
+        return ngrams != null;
+    }
+
+    /**
+     * Returns the phrases of the highest counts
+     *
+     * @param k the number of phrases to return
+     * @return a List of the phrases and their counts in descending order of the counts, empty if the phrases are not counted
+     */
+    public List<Map.Entry<String, Long>> getTopPhrases(int k){
+
+        NGramCounter phraseCounter = ngrams;
+        if(phraseCounter == null){
+            return new ArrayList<>();
+        }
+
+        return phraseCounter.getTop(k);
+    }
+
+    /**
+     * Merge a partial count received from another process into the storage
+     * The merged count is not recorded as a pending delta, so an aggregator never ships it back
+     * A keyword whose count drops to 0 or below is removed, whichever features are enabled
+     *
+     * @param word the keyword to be merged
+     * @param delta the count to be added to the keyword
+     */
+    public void mergeCount(String word, int delta){
+
+        // Skip the empty updates
+        if(word == null || delta == 0){
+            return;
+        }
+
+        // Atomically add the delta to the existing count, or put the delta as the new count,
+        //  removing the keyword once its count drops to 0, as no count is ever negative
+        map.compute(word.toLowerCase(), (key, val) -> {
+            int count = val == null ? 0 : val;
+            int merged = Math.max(0, count + delta);
+
+            ScoreIndex scoreIndex = index;
+            if(scoreIndex != null){
+                scoreIndex.update(key, merged);
+            }
+
+            // Drop the decayed score along with the keyword, or count the merged occurrences as seen now
+            DecayingScores decayingScores = decay;
+            if(decayingScores != null){
+                if(merged == 0){
+                    decayingScores.remove(key);
+                } else if(delta > 0){
+                    decayingScores.add(key, delta);
+                }
+            }
+            return merged == 0 ? null : merged;
+        });
+    }
+
+    /**
+     * Start indexing the keywords by their counts, to answer getRank(), countAtLeast() and getPage() in logarithmic time
+     * The existing keywords are indexed at once, which is safe while the input runs, but the queries only see
+     *  all the keywords once it returns
+     */
+    public void enableScoreIndex(){
+
+        // Ensure only one index is created
+        synchronized (map){
+            if(index == null){
+
+                // Install the index first, so the keywords counted from now on are indexed by the counting itself
+                ScoreIndex scoreIndex = new ScoreIndex();
+                index = scoreIndex;
+
+                // Index each existing keyword at its count, while holding the lock of the key
+                for (String key : map.keySet()) {
+                    map.computeIfPresent(key, (k, val) -> {
+                        scoreIndex.update(k, val);
+                        return val;
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop indexing the keywords by their counts, dropping the index
+     */
+    public void disableScoreIndex(){
+        index = null;
+    }
+
+    /**
+     * Returns the rank of a keyword by its count, 1 for the highest, the keywords of the same count share the same rank
+     *
+     * @param _keyword the keyword to rank
+     * @return the rank, or 0 if the keyword does not exist
+     */
+    public int getRank(String _keyword){
+
+        Integer value = map.get(_keyword.toLowerCase());
+
+        // Stop if the keyword does not exist
+        if(value == null){
+            return 0;
+        }
+
+        // One plus the number of keywords counted more often
+        return countAtLeast(value + 1) + 1;
+    }
+
+    /**
+     * Returns the number of keywords with a count of at least n
+     *
+     * @param n the count threshold
+     * @return the number of keywords
+     */
+    public int countAtLeast(int n){
+
+        ScoreIndex scoreIndex = index;
+        if(scoreIndex != null){
+            return scoreIndex.countAtLeast(n);
+        }
+
+        // Scan the storage without the index
+        int total = 0;
+        for (Integer value : map.values()) {
+            if(value >= n){
+                ++total;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns a page of the keywords in descending order of the counts
+     * The keywords of the same count are in ascending order without the index, and in no particular order with the index
+     *
+     * @param offset the number of keywords to skip, 0 for the highest
+     * @param limit the maximum number of keywords to return
+     * @return a List of the keywords and their counts
+     */
+    public List<Map.Entry<String, Integer>> getPage(int offset, int limit){
+
+        ScoreIndex scoreIndex = index;
+        if(scoreIndex != null){
+            return scoreIndex.page(offset, limit);
+        }
+
+        // Sort the storage without the index
+        List<Map.Entry<String, Integer>> list = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            list.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        list.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        int from = Math.min(Math.max(0, offset), list.size());
+        return new ArrayList<>(list.subList(from, Math.min(list.size(), from + Math.max(0, limit))));
+    }
+
+    /**
+     * Returns the keywords of the highest counts
+     *
+     * @param k the number of keywords to return
+     * @return a List of the keywords and their counts in descending order of the counts
+     */
+    public List<Map.Entry<String, Integer>> getTopKeywords(int k){
+        return getPage(0, k);
+    }
+
+    /**
+     * Start keeping a time-decayed score per keyword, so the rankings reflect recency, and expire the inactive keywords
+     *
+     * @param halfLifeMillis the time for a score to halve in milliseconds
+     * @param floor the decayed score below which a keyword is removed, 0 for none
+     * @param ttlMillis the time after which a keyword not seen is removed in milliseconds, 0 for none
+     */
+    public void enableDecay(long halfLifeMillis, double floor, long ttlMillis){
+        enableDecay(halfLifeMillis, floor, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Start keeping a time-decayed score per keyword, using the specified clock
+     *
+     * @param halfLifeMillis the time for a score to halve in milliseconds
+     * @param floor the decayed score below which a keyword is removed, 0 for none
+     * @param ttlMillis the time after which a keyword not seen is removed in milliseconds, 0 for none
+     * @param clock the source of the current time in milliseconds
+     */
+    public void enableDecay(long halfLifeMillis, double floor, long ttlMillis, LongSupplier clock){
+        enableDecay(halfLifeMillis, floor, ttlMillis, clock, true);
+    }
+
+    /**
+     * Start keeping a time-decayed score per keyword, using the specified clock, with or without the background sweeper
+     * Without the sweeper, the keywords are only expired by calling expireDecayed(), e.g., by the tests driving the clock
+     *
+     * @param halfLifeMillis the time for a score to halve in milliseconds
+     * @param floor the decayed score below which a keyword is removed, 0 for none
+     * @param ttlMillis the time after which a keyword not seen is removed in milliseconds, 0 for none
+     * @param clock the source of the current time in milliseconds
+     * @param sweep true to expire the keywords at background
+     */
+    public void enableDecay(long halfLifeMillis, double floor, long ttlMillis, LongSupplier clock, boolean sweep){
+
+        // Ensure only one sweeper is running
+        synchronized (map){
+            disableDecay();
+
+            // Install the scores first, so the keywords counted from now on are scored by the counting itself
+            DecayingScores decayingScores = new DecayingScores(halfLifeMillis, floor, ttlMillis, clock, this::removeExpired);
+            decay = decayingScores;
+
+            // The existing keywords start as seen now, each seeded while holding the lock of the key
+            for (String key : map.keySet()) {
+                map.computeIfPresent(key, (k, val) -> {
+                    decayingScores.seed(k, val);
+                    return val;
+                });
+            }
+
+            if(!sweep){
+                return;
+            }
+
+            // Sweep several times per half-life or TTL, between once a second and once a minute
+            long period = Math.min(halfLifeMillis, ttlMillis > 0 ? ttlMillis : halfLifeMillis) / 8;
+            period = Math.max(1000, Math.min(60000, period));
+
+            decaySweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "decay-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            decaySweeper.scheduleAtFixedRate(() -> {
+                try {
+                    expireDecayed();
+                } catch (Exception ex) {
+                    LogFile.log(ex, "severe", "error expiring keywords " + ex.getMessage());
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop keeping the time-decayed scores, the keywords are no longer expired
+     */
+    public void disableDecay(){
+
+        synchronized (map){
+            if(decaySweeper != null){
+                decaySweeper.shutdownNow();
+                decaySweeper = null;
+            }
+            decay = null;
+        }
+    }
+
+    /**
+     * Remove the keywords whose decayed score has fallen below the floor, or not seen for the TTL
+     * It runs at background while the decay is enabled, and only visits the keywords due to expire
+     *
+     * @return number of keywords removed
+     */
+    public int expireDecayed(){
+        DecayingScores decayingScores = decay;
+        return decayingScores == null ? 0 : decayingScores.expire();
+    }
+
+    /**
+     * Returns the time-decayed score of a keyword
+     *
+     * @param _keyword the keyword
+     * @return the decayed score, 0 if the keyword does not exist or the decay is disabled
+     */
+    public double getDecayedScore(String _keyword){
+        DecayingScores decayingScores = decay;
+        return decayingScores == null ? 0 : decayingScores.score(_keyword.toLowerCase());
+    }
+
+    /**
+     * Returns the keywords of the highest time-decayed scores
+     *
+     * @param k the number of keywords to return
+     * @return a List of the keywords and their decayed scores in descending order, empty if the decay is disabled
+     */
+    public List<Map.Entry<String, Double>> getTrending(int k){
+        DecayingScores decayingScores = decay;
+        return decayingScores == null ? new ArrayList<>() : decayingScores.getTop(k);
+    }
+
+    /**
+     * Remove a keyword due to expire from the storage and the index, unless it has been counted meanwhile
+     * The decayed score is checked again while holding the lock of the key, the same lock the counting holds
+     *
+     * @param word the keyword due to expire
+     * @return true if removed
+     */
+    private boolean removeExpired(String word){
+
+        DecayingScores decayingScores = decay;
+        boolean[] removed = new boolean[1];
+
+        map.compute(word, (key, val) -> {
+            if(decayingScores == null || !decayingScores.removeIfDue(key)){
+                return val;
+            }
+            ScoreIndex scoreIndex = index;
+            if(val != null && scoreIndex != null){
+                scoreIndex.update(key, 0);
+            }
+            removed[0] = val != null;
+            return null;
+        });
+
+        return removed[0];
+    }
+
+    /**
+     * Start recording the count deltas of the keywords for the cluster node mode
+     */
+    public void enableDeltaTracking(){
+
+        // Ensure only one delta map is created
+        synchronized (map){
+            if(deltas == null){
+                deltas = new ConcurrentHashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Stop recording the count deltas of the keywords, dropping the deltas not drained yet
+     */
+    public void disableDeltaTracking(){
+        deltas = null;
+    }
+
+    /**
+     * Remove and return the count deltas recorded since the last drain
+     * Each key is removed atomically, so an increment racing with the drain is kept for the next drain
+     *
+     * @param maxEntries the maximum number of keywords to drain at a time
+     * @return the map of keywords and their count deltas, empty if the delta tracking is disabled
+     */
+    public Map<String, Integer> drainDeltas(int maxEntries){
+
+        Map<String, Integer> drained = new HashMap<>();
+        ConcurrentHashMap<String, Integer> pending = deltas;
+
+        // Stop if the delta tracking is disabled
+        if(pending == null){
+            return drained;
+        }
+
+        // Loop through the keys for thread safety, instead of using iterator
+        for (String key : pending.keySet()) {
+
+            // Stop once the batch is full
+            if(drained.size() >= maxEntries){
+                break;
+            }
+
+            // Atomically take the delta out of the pending map
+            Integer delta = pending.remove(key);
+            if(delta != null){
+                drained.put(key, delta);
+            }
+        }
+
+        return drained;
+    }
+
+    /**
+     * Take the full counts of the keywords and drop the pending deltas they include, for a node to resend all of its counts
+     * Each key is taken atomically with its delta, so an increment racing with the reset is either in the counts or in the next drain
+     *
+     * @return the map of keywords and their counts, empty if the delta tracking is disabled
+     */
+    public Map<String, Integer> resetDeltas(){
+
+        Map<String, Integer> counts = new HashMap<>();
+        ConcurrentHashMap<String, Integer> pending = deltas;
+
+        // Stop if the delta tracking is disabled
+        if(pending == null){
+            return counts;
+        }
+
+        // Loop through the keys for thread safety, instead of using iterator
+        for (String key : map.keySet()) {
+            map.computeIfPresent(key, (k, val) -> {
+                pending.remove(k);
+                counts.put(k, val);
+                return val;
+            });
+        }
+
+        return counts;
+    }
+
     /**
      * Returns all keys sorted in a List
      *
@@ -133,6 +657,20 @@ public class SearchScorerSingleton {
             return null;
         }
 
+        // Rank by the decayed scores, if enabled, from their highest levels
+        DecayingScores decayingScores = decay;
+        if(decayingScores != null){
+            List<Map.Entry<String, Double>> top = decayingScores.getTop(1);
+            return top.isEmpty() ? null : top.get(0).getKey();
+        }
+
+        // Look up the highest bucket of the index, if any
+        ScoreIndex scoreIndex = index;
+        if(scoreIndex != null){
+            List<Map.Entry<String, Integer>> top = scoreIndex.page(0, 1);
+            return top.isEmpty() ? null : top.get(0).getKey();
+        }
+
         // Use the collection utility function max() to get the max value
         String key = Collections.max(map.entrySet(), Map.Entry.comparingByValue()).getKey();
 
@@ -141,15 +679,32 @@ public class SearchScorerSingleton {
 
     /**
      * Remove all the elements less than the specified occurrence number
+     * The phrases counted less than x times are removed too, if counted, as they are never removed otherwise
      *
      * @param x the threshold number used to remove
-     * @return number of elements removed
+     * @return number of elements removed, not counting the phrases
      */
     public int cleanLowScores(int x){
 
+        // Prune the phrases, whose tables only grow while counting
+        cleanLowPhrases(x);
+
         // Counter of removal
         int total = 0;
 
+        // Only visit the low buckets of the index, if any
+        ScoreIndex scoreIndex = index;
+        if(scoreIndex != null){
+            for (Map.Entry<String, Integer> victim : scoreIndex.below(x)) {
+
+                // Atomically remove the keyword, unless it has been counted up to the threshold meanwhile
+                if(removeBelow(victim.getKey(), x)){
+                    ++total;
+                }
+            }
+            return total;
+        }
+
         // Ensure thread safety
         synchronized (map){
 
@@ -159,11 +714,10 @@ public class SearchScorerSingleton {
                 // Check the value threshold
                 if(entry.getValue() < x){
 
-                    // Remove from the storage
-                    map.remove(entry.getKey());
-
-                    // Count the removal
-                    ++total;
+                    // Remove from the storage, unless counted up to the threshold meanwhile, and count the removal
+                    if(removeBelow(entry.getKey(), x)){
+                        ++total;
+                    }
                 }
             }
 
@@ -171,6 +725,46 @@ public class SearchScorerSingleton {
         return total;
     }
 
+    /**
+     * Remove all the phrases counted less than the specified number of times
+     *
+     * @param x the threshold number used to remove
+     * @return number of phrases removed, 0 if the phrases are not counted
+     */
+    public long cleanLowPhrases(long x){
+        NGramCounter phraseCounter = ngrams;
+        return phraseCounter == null ? 0 : phraseCounter.prune(x);
+    }
+
+    /**
+     * Atomically remove a keyword along with its bucket and its decayed score, if its count is less than x
+     *
+     * @param word the keyword
+     * @param x the threshold number
+     * @return true if removed
+     */
+    private boolean removeBelow(String word, int x){
+
+        boolean[] removed = new boolean[1];
+        map.computeIfPresent(word, (key, val) -> {
+            if(val >= x){
+                return val;
+            }
+            ScoreIndex scoreIndex = index;
+            if(scoreIndex != null){
+                scoreIndex.update(key, 0);
+            }
+            DecayingScores decayingScores = decay;
+            if(decayingScores != null){
+                decayingScores.remove(key);
+            }
+            removed[0] = true;
+            return null;
+        });
+
+        return removed[0];
+    }
+
     /**
      * Check if a keyword exists and has count > 0
      *
@@ -199,32 +793,123 @@ public class SearchScorerSingleton {
         // Define the end of the line
         String eol = System.getProperty("line.separator");
 
+        // Ensure thread safety
+        synchronized (objWriter){
+
+            try (Writer writer = new FileWriter(fileName)) {
+
+                writeCSV(writer, eol);
+
+                writer.flush();
+                writer.close();
+
+                LogFile.log(null, "info", "Written CSV " + fileName);
+            } catch (IOException ex) {
+                LogFile.log(ex, "severe", "Can't write to CSV " + fileName);
+                //ex.printStackTrace(System.err);
+                throw ex;
+            }
+
+        }
+    }
+
+    /**
+     * Write the internal map to the columnar file, to be read by ColumnarReader
+     *
+     * @param fileName the file name of the file to write
+     */
+    public void writeToColumnar(String fileName) throws IOException {
+
+        // Ensure thread safety
+        synchronized (objWriter){
+
+            try {
+                ColumnarWriter.write(map, fileName);
+
+                LogFile.log(null, "info", "Written columnar file " + fileName);
+            } catch (IOException ex) {
+                LogFile.log(ex, "severe", "Can't write to columnar file " + fileName);
+                throw ex;
+            }
+
+        }
+    }
+
+    /**
+     * Write the internal map in csv format to a writer, streaming the entries without copying the map
+     * It does not lock the storage, so a slow writer never blocks the input or the other reports
+     *
+     * @param writer the writer to write to
+     * @param eol the end of the line
+     */
+    public void writeCSV(Writer writer, String eol) throws IOException {
+
+        // Write the Header
+        writer.append("Keyword")
+                .append(',')
+                .append("Score")
+                .append(eol);
+
+        // Write the content
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            writer.append(entry.getKey())
+                    .append(',')
+                    .append(entry.getValue().toString())
+                    .append(eol);
+        }
+    }
+
+    /**
+     * Write the phrases counted at least the threshold times to the csv file
+     *
+     * @param fileName the file name of the file to write
+     */
+    public void writeNGramsToCSV(String fileName) throws IOException {
+
+        NGramCounter phraseCounter = ngrams;
+
+        // Stop if the phrases are not counted
+        if(phraseCounter == null){
+            return;
+        }
+
+        // Define the end of the line
+        String eol = System.getProperty("line.separator");
+
         // Ensure thread safety
         synchronized (objWriter){
 
             try (Writer writer = new FileWriter(fileName)) {
 
                 // Write the Header
-                writer.append("Keyword")
+                writer.append("Phrase")
                         .append(',')
                         .append("Score")
                         .append(eol);
 
                 // Write the content
-                for (Map.Entry<String, Integer> entry : map.entrySet()) {
-                    writer.append(entry.getKey())
-                            .append(',')
-                            .append(entry.getValue().toString())
-                            .append(eol);
+                IOException[] error = new IOException[1];
+                phraseCounter.forEach((text, value) -> {
+                    try {
+                        if(error[0] == null) {
+                            writer.append(text)
+                                    .append(',')
+                                    .append(Long.toString(value))
+                                    .append(eol);
+                        }
+                    } catch (IOException ex) {
+                        error[0] = ex;
+                    }
+                });
+                if(error[0] != null){
+                    throw error[0];
                 }
 
                 writer.flush();
-                writer.close();
 
                 LogFile.log(null, "info", "Written CSV " + fileName);
             } catch (IOException ex) {
                 LogFile.log(ex, "severe", "Can't write to CSV " + fileName);
-                //ex.printStackTrace(System.err);
                 throw ex;
             }
 
@@ -239,10 +924,58 @@ public class SearchScorerSingleton {
         // Ensure thread safety
         synchronized (map) {
             map.clear();
+
+            ScoreIndex scoreIndex = index;
+            if(scoreIndex != null){
+                scoreIndex.clear();
+            }
+
+            DecayingScores decayingScores = decay;
+            if(decayingScores != null){
+                decayingScores.clear();
+            }
+
+            NGramCounter phraseCounter = ngrams;
+            if(phraseCounter != null){
+                phraseCounter.clear();
+            }
+
+            ConcurrentHashMap<String, Integer> pending = deltas;
+            if(pending != null){
+                pending.clear();
+            }
         }
 
     }
 
+    /**
+     * Returns the number of keywords in the storage
+     *
+     * @return the number of keywords
+     */
+    public int size(){
+        return map.size();
+    }
+
+    /**
+     * Returns the number of distinct phrases counted
+     *
+     * @return the number of phrases, 0 if the phrases are not counted
+     */
+    public long getPhraseCount(){
+        NGramCounter phraseCounter = ngrams;
+        return phraseCounter == null ? 0 : phraseCounter.size();
+    }
+
+    /**
+     * Check if the keywords are indexed by their counts
+     *
+     * @return true if indexed, false if not
+     */
+    public boolean isScoreIndexEnabled(){
+        return index != null;
+    }
+
     /**
      *
      *
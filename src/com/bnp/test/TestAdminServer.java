@@ -0,0 +1,256 @@
+package com.bnp.test;
+
+import com.bnp.admin.AdminServer;
+import com.bnp.scorereporter.ScoreReporter;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test class for the AdminServer class
+ */
+public class TestAdminServer {
+
+    /**
+     * Parameters
+     */
+    private SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+    private AdminServer admin;
+    private int port;
+
+    @Before
+    public void runBefore() throws IOException {
+        ss.clear();
+        ss.inputSearchTerm("Happy Birthday Happy");
+        admin = new AdminServer(0, new ScoreReporter(ss), ss);
+        port = admin.start();
+    }
+
+    @After
+    public void runAfter(){
+        admin.stop();
+    }
+
+    /**
+     * Send the commands on one connection and return all the response lines
+     */
+    private String send(String... commands) throws IOException {
+        return send(port, commands);
+    }
+
+    private static String send(int port, String... commands) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+
+            for (String command : commands) {
+                out.append(command).append('\n');
+            }
+            out.append("QUIT").append('\n');
+            out.flush();
+
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                response.append(line).append('|');
+            }
+            return response.toString();
+        }
+    }
+
+    @Test
+    public void testQueries() throws IOException {
+
+        assertEquals("Must be exact values", "OK true|OK false|", send("EXISTS happy", "exists unhappy"));
+        assertEquals("Must be exact values", "happy,2|END|", send("TOP 1"));
+        assertEquals("Must be exact values", "OK 2|", send("RANK birthday"));
+        assertTrue("Must be true", send("STATS").startsWith("OK keywords=2 "));
+        assertEquals("Must be exact values", "ERR not a number: x|ERR unknown command FOO|", send("TOP x", "foo"));
+    }
+
+    @Test
+    public void testSnapshotAndClean() throws IOException {
+
+        String snapshot = send("SNAPSHOT");
+        assertTrue("Must be true", snapshot.startsWith("Keyword,Score|"));
+        assertTrue("Must be true", snapshot.contains("|happy,2|"));
+        assertTrue("Must be true", snapshot.endsWith("|END|"));
+
+        assertEquals("Must be exact values", "OK 1|", send("CLEAN 2"));
+        assertFalse("Must be false", ss.exists("birthday"));
+    }
+
+    @Test
+    public void testConcurrentConnections() throws Exception {
+
+        // A connection left open does not block the others
+        try (Socket idle = new Socket("127.0.0.1", port)) {
+            assertEquals("Must be exact values", "OK true|", send("EXISTS happy"));
+        }
+    }
+
+    @Test
+    public void testTooManyConnections() throws Exception {
+
+        List<Socket> idle = new ArrayList<>();
+        try {
+            // Fill up the connections, checking each of them is served
+            for (int i = 0; i < 8; ++i) {
+                Socket socket = new Socket("127.0.0.1", port);
+                idle.add(socket);
+                socket.getOutputStream().write("EXISTS happy\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals("Must be exact values", "OK true", new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine());
+            }
+
+            // One more is rejected at once, instead of waiting
+            assertEquals("Must be exact values", "ERR too many connections|", send("EXISTS happy"));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+
+        // Served again once the idle ones are gone
+        long deadline = System.currentTimeMillis() + 5000;
+        String response;
+        while(!(response = send("EXISTS happy")).equals("OK true|") && System.currentTimeMillis() < deadline){
+            Thread.sleep(20);
+        }
+        assertEquals("Must be exact values", "OK true|", response);
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+
+        AdminServer shortIdle = new AdminServer(0, new ScoreReporter(ss), ss, 200);
+        int shortPort = shortIdle.start();
+        try (Socket socket = new Socket("127.0.0.1", shortPort)) {
+            socket.setSoTimeout(5000);
+
+            // The idle connection is closed by the server
+            assertNull("Must be closed", new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine());
+        } finally {
+            shortIdle.stop();
+        }
+    }
+
+    @Test
+    public void testStalledReaders() throws Exception {
+
+        // A snapshot much larger than the socket buffers
+        for (int i = 0; i < 300000; ++i) {
+            ss.mergeCount("keyword" + i, 1 + i % 100);
+        }
+
+        AdminServer shortIdle = new AdminServer(0, new ScoreReporter(ss), ss, 200);
+        int shortPort = shortIdle.start();
+        List<Socket> stalled = new ArrayList<>();
+        try {
+            // Fill up the connections with clients asking for a snapshot and never reading it
+            for (int i = 0; i < 8; ++i) {
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new java.net.InetSocketAddress("127.0.0.1", shortPort));
+                stalled.add(socket);
+                socket.getOutputStream().write("SNAPSHOT\n".getBytes(StandardCharsets.UTF_8));
+            }
+
+            // The shutdown is reachable beyond the limit at once
+            assertEquals("Must be exact values", "OK|", send(shortPort, "SHUTDOWN"));
+
+            // The stalled clients are closed, so all the connections are served again
+            List<Socket> served = new ArrayList<>();
+            try {
+                long deadline = System.currentTimeMillis() + 5000;
+                while(served.size() < 8 && System.currentTimeMillis() < deadline){
+                    Socket socket = new Socket("127.0.0.1", shortPort);
+                    socket.getOutputStream().write("EXISTS happy\n".getBytes(StandardCharsets.UTF_8));
+                    if("OK true".equals(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine())){
+                        served.add(socket);
+                    } else {
+                        socket.close();
+                        Thread.sleep(20);
+                    }
+                }
+                assertEquals("Must be exact values", 8, served.size());
+            } finally {
+                for (Socket socket : served) {
+                    socket.close();
+                }
+            }
+
+            // A stalled client gets its snapshot cut short
+            Socket socket = stalled.get(0);
+            socket.setSoTimeout(5000);
+            String line, last = null;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                while ((line = in.readLine()) != null) {
+                    last = line;
+                }
+            } catch (java.net.SocketException ex) {
+                // reset by the server
+            }
+            assertFalse("Must be cut short", "END".equals(last));
+        } finally {
+            for (Socket socket : stalled) {
+                socket.close();
+            }
+            shortIdle.stop();
+        }
+    }
+
+    @Test
+    public void testReportFailure() throws Exception {
+
+        // A report directory which does not exist
+        File configFile = File.createTempFile("config", ".csv");
+        try (Writer writer = new FileWriter(configFile)) {
+            writer.append("DIR,").append(new File(configFile.getParentFile(), "missing" + System.nanoTime() + "/dir").getPath()).append('\n');
+        }
+
+        AdminServer failing = new AdminServer(0, new ScoreReporter(configFile.getPath(), ss), ss);
+        int failingPort = failing.start();
+        try {
+            assertTrue("Must be an error", send(failingPort, "REPORT").startsWith("ERR "));
+        } finally {
+            failing.stop();
+            configFile.delete();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+
+        Thread waiting = new Thread(admin::awaitShutdown);
+        waiting.start();
+
+        assertEquals("Must be exact values", "OK|", send("SHUTDOWN"));
+        waiting.join(5000);
+        assertFalse("Must be false", waiting.isAlive());
+    }
+
+    public static void main(String[] args) {
+
+        // Run test cases
+        Result result = JUnitCore.runClasses(TestAdminServer.class);
+
+        // Print test results
+        for (Failure failure : result.getFailures()) {
+            System.out.println(failure.toString());
+        }
+
+        System.out.println(result.wasSuccessful());
+    }
+}
@@ -0,0 +1,291 @@
+package com.bnp.test;
+
+import com.bnp.cluster.ClusterAggregator;
+import com.bnp.cluster.ClusterMain;
+import com.bnp.cluster.ClusterNode;
+import com.bnp.cluster.DeltaFrame;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test class for the cluster mode classes
+ */
+public class TestCluster {
+
+    /**
+     * The storage the frames are merged into
+     */
+    private SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+
+    @Before
+    public void runBefore(){
+        ss.clear();
+    }
+
+    @After
+    public void runAfter(){
+        ss.disableDeltaTracking();
+        ss.clear();
+    }
+
+    /**
+     * Wait until a condition holds, at most 20 seconds
+     */
+    private static boolean waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while(!condition.getAsBoolean()){
+            if(System.currentTimeMillis() > deadline){
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private static Map<String, Integer> deltas(Object... pairs){
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((String) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+
+        DeltaFrame frame = new DeltaFrame("node1", 42L, 7L, deltas("happy", 3, "happier", 1, "birthday", -2, "\u751f\u65e5", 5));
+        DeltaFrame decoded = DeltaFrame.decode(frame.encode());
+
+        assertEquals("Must be exact values", "node1", decoded.getNodeId());
+        assertEquals("Must be exact values", 42L, decoded.getEpoch());
+        assertEquals("Must be exact values", 7L, decoded.getSeq());
+        assertEquals("Must be exact values", frame.getDeltas(), decoded.getDeltas());
+    }
+
+    @Test
+    public void testDuplicatedAndLostFrames(){
+
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+
+        assertEquals("Must be merged", 1L, aggregator.apply(new DeltaFrame("node1", 1L, 1L, deltas("happy", 2))));
+
+        // A duplicated frame is skipped
+        assertEquals("Must be skipped", 1L, aggregator.apply(new DeltaFrame("node1", 1L, 1L, deltas("happy", 2))));
+
+        // A frame after a lost one is skipped until the lost one is resent
+        assertEquals("Must be skipped", 1L, aggregator.apply(new DeltaFrame("node1", 1L, 3L, deltas("happy", 1))));
+        assertEquals("Must be merged", 2L, aggregator.apply(new DeltaFrame("node1", 1L, 2L, deltas("birthday", 1))));
+        assertEquals("Must be merged", 3L, aggregator.apply(new DeltaFrame("node1", 1L, 3L, deltas("happy", 1))));
+
+        // The sequence of another node is independent
+        assertEquals("Must be merged", 1L, aggregator.apply(new DeltaFrame("node2", 1L, 1L, deltas("happy", 1))));
+
+        // A restarted node starts a new sequence, and its old process is rejected
+        assertEquals("Must be merged", 1L, aggregator.apply(new DeltaFrame("node1", 2L, 1L, deltas("birthday", 1))));
+        assertEquals("Must be rejected", -1L, aggregator.apply(new DeltaFrame("node1", 1L, 4L, deltas("happy", 1))));
+
+        assertEquals("Must be exact values", "{birthday=2, happy=4}", ss.toString());
+    }
+
+    @Test
+    public void testResync(){
+
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+
+        // Nothing is known of the node, so it's asked for its full counts from its oldest frame on
+        assertEquals("Must be reset", -2L, aggregator.resync("node1", 1L, 5L));
+        assertEquals("Must be merged", 5L, aggregator.apply(new DeltaFrame("node1", 1L, 5L, deltas("happy", 2))));
+
+        // A reconnection picks up the sequence, even if the last acknowledgement was lost
+        assertEquals("Must be exact values", 5L, aggregator.resync("node1", 1L, 5L));
+        assertEquals("Must be exact values", 6L, aggregator.resync("node1", 1L, 7L));
+
+        // A restarted node process starts a new sequence, and its old process is rejected
+        assertEquals("Must be exact values", 0L, aggregator.resync("node1", 2L, 1L));
+        assertEquals("Must be rejected", -1L, aggregator.resync("node1", 1L, 7L));
+    }
+
+    @Test
+    public void testShipOverLoopback() throws IOException {
+
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+        int port = aggregator.start();
+
+        try {
+            ClusterNode node = new ClusterNode("node1", "127.0.0.1", port, ss, 1);
+            ss.inputSearchTerm("Happy Birthday Happy");
+            node.flush();
+
+            // The node and the aggregator share the storage in this process, so each count is doubled by the merge
+            assertEquals("Must be acknowledged", 0, node.getUnackedFrames());
+            assertEquals("Must be exact values", 2L, aggregator.getFramesMerged());
+            assertEquals("Must be exact values", "{birthday=2, happy=4}", ss.toString());
+
+            // Nothing is shipped twice
+            node.flush();
+            assertEquals("Must be exact values", "{birthday=2, happy=4}", ss.toString());
+        }
+        finally {
+            aggregator.stop();
+        }
+    }
+
+    @Test
+    public void testAggregatorRestart() throws Exception {
+
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+        int port = aggregator.start();
+
+        // The node runs in its own process, reading the search terms from its standard input
+        Process node = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                ClusterMain.class.getName(), "node", "node1", "127.0.0.1", String.valueOf(port), "50")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        try (Writer terms = new OutputStreamWriter(node.getOutputStream())) {
+
+            for (int i = 0; i < 100; ++i) {
+                terms.append("Happy Birthday").append('\n');
+            }
+            terms.flush();
+            ClusterAggregator first = aggregator;
+            assertTrue("Must be merged", waitFor(() -> first.getEntriesMerged() > 0 && ss.getPage(0, 1).toString().equals("[birthday=100]")));
+
+            // Restart the aggregator on the same port, without the sequence state of the node and with an empty storage
+            aggregator.stop();
+            ss.clear();
+            aggregator = new ClusterAggregator(port, ss);
+            aggregator.start();
+
+            // The node resends its full counts to the new aggregator
+            ClusterAggregator restarted = aggregator;
+            assertTrue("Must be reset", waitFor(() -> ss.getPage(0, 10).toString().equals("[birthday=100, happy=100]")));
+
+            for (int i = 0; i < 50; ++i) {
+                terms.append("Happy").append('\n');
+            }
+            terms.flush();
+            assertTrue("Must be merged", waitFor(() -> ss.getPage(0, 1).toString().equals("[happy=150]")));
+            assertEquals("Must be exact values", 0L, restarted.getFramesSkipped());
+        }
+        finally {
+            assertTrue("Must exit", node.waitFor(20, java.util.concurrent.TimeUnit.SECONDS));
+            aggregator.stop();
+        }
+
+        assertEquals("Must be exact values", "[happy=150, birthday=100]", ss.getPage(0, 10).toString());
+    }
+
+    @Test
+    public void testStopClosesConnections() throws IOException {
+
+        ClusterAggregator aggregator = new ClusterAggregator(0, ss);
+        int port = aggregator.start();
+
+        ClusterNode node = new ClusterNode("node1", "127.0.0.1", port, ss);
+        ss.inputSearchTerm("Happy");
+        node.flush();
+        aggregator.stop();
+
+        // The open connection is closed, so nothing more is merged
+        ss.inputSearchTerm("Birthday");
+        try {
+            node.flush();
+            fail("Must fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertEquals("Must be exact values", 1L, aggregator.getFramesMerged());
+        assertEquals("Must be kept", 1, node.getUnackedFrames());
+    }
+
+    @Test
+    public void testAggregatorUnreachable() throws IOException {
+
+        // A free port, with nobody listening on it yet
+        int port;
+        try (java.net.ServerSocket free = new java.net.ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+
+        ClusterNode node = new ClusterNode("node1", "127.0.0.1", port, ss, 1);
+        for (int i = 0; i < 3; ++i) {
+            ss.inputSearchTerm("Happy");
+            try {
+                node.flush();
+                fail("Must fail");
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+
+        // The deltas are left pending instead of piling up as frames
+        assertEquals("Must be kept pending", 0, node.getUnackedFrames());
+
+        ClusterAggregator aggregator = new ClusterAggregator(port, ss);
+        aggregator.start();
+        try {
+            node.flush();
+
+            // The full counts in a single frame, merged into the storage shared with the node
+            assertEquals("Must be exact values", 1L, aggregator.getFramesMerged());
+            assertEquals("Must be exact values", "{happy=6}", ss.toString());
+        }
+        finally {
+            aggregator.stop();
+        }
+    }
+
+    @Test
+    public void testAggregatorHung() throws Exception {
+
+        // Accepted by the backlog, but never answered
+        try (java.net.ServerSocket hung = new java.net.ServerSocket(0)) {
+
+            ClusterNode node = new ClusterNode("node1", "127.0.0.1", hung.getLocalPort(), ss, 1, 200);
+            ss.inputSearchTerm("Happy");
+
+            long start = System.currentTimeMillis();
+            try {
+                node.flush();
+                fail("Must fail");
+            } catch (java.net.SocketTimeoutException ex) {
+                // expected
+            }
+
+            // The shutdown is not stuck behind the flush either
+            Thread shutdown = new Thread(node::shutdown);
+            shutdown.start();
+            shutdown.join(5000);
+            assertFalse("Must be false", shutdown.isAlive());
+            assertTrue("Must time out", System.currentTimeMillis() - start < 5000);
+        }
+    }
+
+    public static void main(String[] args) {
+
+        // Run test cases
+        Result result = JUnitCore.runClasses(TestCluster.class);
+
+        // Print test results
+        for (Failure failure : result.getFailures()) {
+            System.out.println(failure.toString());
+        }
+
+        System.out.println(result.wasSuccessful());
+    }
+}
@@ -0,0 +1,131 @@
+package com.bnp.test;
+
+import com.bnp.columnar.ColumnarReader;
+import com.bnp.columnar.ColumnarWriter;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test class for the ColumnarWriter and ColumnarReader classes
+ */
+public class TestColumnar {
+
+    /**
+     * Parameters
+     */
+    private SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+    private File colFile, csvFile;
+
+    @Before
+    public void runBefore() throws IOException {
+        ss.clear();
+        colFile = File.createTempFile("keyscore", ".col");
+        csvFile = File.createTempFile("keyscore", ".csv");
+    }
+
+    @After
+    public void runAfter(){
+        colFile.delete();
+        csvFile.delete();
+    }
+
+    @Test
+    public void testWriteToColumnar() throws IOException {
+
+        ss.inputSearchTerm("Happy Birthday Happy");
+        ss.writeToColumnar(colFile.getPath());
+
+        try (ColumnarReader reader = new ColumnarReader(colFile.getPath())) {
+            assertEquals("Must be exact values", 2, reader.size());
+            assertEquals("Must be exact values", "birthday", reader.keywordAt(0));
+            assertEquals("Must be exact values", 2, reader.getScore("happy"));
+            assertEquals("Must be exact values", 1, reader.getScore("birthday"));
+            assertEquals("Must be exact values", 0, reader.getScore("unhappy"));
+            assertEquals("Must be exact values", 1, reader.countAtLeast(2));
+        }
+    }
+
+    @Test
+    public void testManyKeywords() throws IOException {
+
+        // Keywords sharing prefixes, a few non-ASCII ones, and skewed scores
+        Map<String, Integer> map = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 50000; ++i) {
+            String key = (i % 7 == 0 ? "\u751f\u65e5" : "keyword") + Integer.toString(random.nextInt(1000000), 36);
+            map.put(key, 1 + (int) Math.abs(random.nextGaussian() * random.nextGaussian() * 100));
+        }
+        map.put("z", 2000000000);
+
+        // Keywords sharing prefixes longer than the front-coding header holds
+        for (int i = 0; i < 100; ++i) {
+            map.put("a keyword sharing a prefix longer than thirty-one bytes " + i, i + 1);
+        }
+
+        ColumnarWriter.write(map, colFile.getPath());
+
+        try (ColumnarReader reader = new ColumnarReader(colFile.getPath())) {
+            assertEquals("Must be exact values", map.size(), reader.size());
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                int index = reader.indexOf(entry.getKey());
+                assertTrue("Must be found", index >= 0);
+                assertEquals("Must be exact values", entry.getKey(), reader.keywordAt(index));
+                assertEquals("Must be exact values", (long) entry.getValue(), reader.scoreAt(index));
+            }
+            assertEquals("Must be not found", -1, reader.indexOf("keyword"));
+            assertEquals("Must be not found", -1, reader.indexOf("a"));
+            assertEquals("Must be not found", -1, reader.indexOf("zz"));
+
+            int atLeast = 0;
+            for (int value : map.values()) {
+                atLeast += value >= 50 ? 1 : 0;
+            }
+            assertEquals("Must be exact values", atLeast, reader.countAtLeast(50));
+            assertEquals("Must be exact values", 2000000000, reader.maxScore());
+        }
+
+        // Several times smaller than the CSV
+        ss.clear();
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            ss.mergeCount(entry.getKey(), entry.getValue());
+        }
+        ss.writeToCSV(csvFile.getPath());
+        assertTrue("Must be 3 times smaller", colFile.length() * 3 < csvFile.length());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+
+        ColumnarWriter.write(new HashMap<>(), colFile.getPath());
+
+        try (ColumnarReader reader = new ColumnarReader(colFile.getPath())) {
+            assertEquals("Must be exact values", 0, reader.size());
+            assertEquals("Must be not found", -1, reader.indexOf("happy"));
+            assertEquals("Must be exact values", 0, reader.countAtLeast(1));
+        }
+    }
+
+    public static void main(String[] args) {
+
+        // Run test cases
+        Result result = JUnitCore.runClasses(TestColumnar.class);
+
+        // Print test results
+        for (Failure failure : result.getFailures()) {
+            System.out.println(failure.toString());
+        }
+
+        System.out.println(result.wasSuccessful());
+    }
+}
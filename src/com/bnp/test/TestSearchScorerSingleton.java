@@ -1,5 +1,6 @@
 package com.bnp.test;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import com.bnp.searchscorersingleton.SearchScorerSingleton;
@@ -9,6 +10,8 @@ import org.junit.runner.notification.Failure;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
 
@@ -28,6 +31,24 @@ public class TestSearchScorerSingleton {
         ss.clear();
     }
 
+    @After
+    public void runAfter(){
+        ss.disableNGrams();
+        ss.disableScoreIndex();
+        ss.disableDecay();
+    }
+
+    /**
+     * Returns the counts of a page in order
+     */
+    private static List<Integer> valuesOf(List<Map.Entry<String, Integer>> page){
+        List<Integer> values = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : page) {
+            values.add(entry.getValue());
+        }
+        return values;
+    }
+
     @Test
     public void testInputSearchTerm(){
 
@@ -94,6 +115,391 @@ public class TestSearchScorerSingleton {
         }
     }
 
+    @Test
+    public void testTopPhrases(){
+
+        ss.enableNGrams(3, 2);
+
+        ss.inputSearchTerm("Happy Birthday to you");
+        ss.inputSearchTerm("happy birthday dear happy");
+        ss.inputSearchTerm("Happy Birthday to me");
+
+        // The phrases seen once are counted, but not reported
+        assertEquals("Must be exact values", "[happy birthday=3]", ss.getTopPhrases(1).toString());
+        assertEquals("Must be exact values", 3, ss.getTopPhrases(10).size());
+        assertEquals("Must be exact values", 2L, (long) ss.getTopPhrases(10).get(2).getValue());
+
+        // The single keywords are counted as usual
+        assertEquals("Must be exact values", "happy", ss.getHighestOccurance());
+    }
+
+    @Test
+    public void testManyPhrases(){
+
+        ss.enableNGrams(2, 1);
+
+        // Enough distinct phrases to grow the tables many times
+        for (int i = 0; i < 20000; ++i) {
+            ss.inputSearchTerm("w" + i + " w" + (i + 1));
+        }
+        ss.inputSearchTerm("w7 w8");
+
+        assertEquals("Must be exact values", "[w7 w8=2]", ss.getTopPhrases(1).toString());
+        assertEquals("Must be exact values", 20000, ss.getTopPhrases(30000).size());
+    }
+
+    @Test
+    public void testCleanLowPhrases(){
+
+        ss.enableNGrams(2, 2);
+        for (int i = 0; i < 20000; ++i) {
+            ss.inputSearchTerm("w" + i + " w" + (i + 1));
+        }
+        for (int i = 0; i < 3; ++i) {
+            ss.inputSearchTerm("happy birthday");
+        }
+        ss.inputSearchTerm("w7 w8");
+
+        // The phrases seen less than 3 times are removed, along with their text
+        ss.cleanLowScores(3);
+        assertEquals("Must be exact values", 1L, ss.getPhraseCount());
+        assertEquals("Must be exact values", "[happy birthday=3]", ss.getTopPhrases(10).toString());
+
+        // A pruned phrase is counted again from 0
+        ss.inputSearchTerm("w7 w8");
+        ss.inputSearchTerm("w7 w8");
+        assertEquals("Must be exact values", 0L, ss.cleanLowPhrases(2));
+        assertEquals("Must be exact values", "[happy birthday=3, w7 w8=2]", ss.getTopPhrases(10).toString());
+        assertEquals("Must be exact values", 1L, ss.cleanLowPhrases(3));
+    }
+
+    @Test
+    public void testRankQueries(){
+
+        ss.enableScoreIndex();
+
+        ss.inputSearchTerm("Happy Birthday Happy to you Happy to");
+
+        assertEquals("Must be exact values", 1, ss.getRank("happy"));
+        assertEquals("Must be exact values", 2, ss.getRank("TO"));
+        assertEquals("Must be exact values", 3, ss.getRank("birthday"));
+        assertEquals("Must be exact values", 3, ss.getRank("you"));
+        assertEquals("Must be exact values", 0, ss.getRank("unhappy"));
+
+        assertEquals("Must be exact values", 4, ss.countAtLeast(1));
+        assertEquals("Must be exact values", 2, ss.countAtLeast(2));
+        assertEquals("Must be exact values", 0, ss.countAtLeast(4));
+
+        // The keywords of the same count are in no particular order, but each is on one page
+        List<Map.Entry<String, Integer>> page = ss.getPage(0, 10);
+        assertEquals("Must be exact values", "[happy=3, to=2]", page.subList(0, 2).toString());
+        assertEquals("Must be exact values", "{birthday=1, you=1}", new TreeMap<>(Map.of(page.get(2).getKey(), 1, page.get(3).getKey(), 1)).toString());
+        assertEquals("Must be exact values", page.subList(2, 3), ss.getPage(2, 1));
+        assertEquals("Must be exact values", page.subList(3, 4), ss.getPage(3, 1));
+
+        assertEquals("Must be exact values", 2, ss.cleanLowScores(2));
+        assertEquals("Must be exact values", "[happy=3, to=2]", ss.getTopKeywords(10).toString());
+        assertFalse("Must be false", ss.exists("you"));
+
+        // Very high counts are ranked as well
+        ss.mergeCount("bigger", 3000000);
+        ss.mergeCount("big", 2000000);
+        assertEquals("Must be exact values", 3, ss.getRank("happy"));
+        assertEquals("Must be exact values", 2, ss.countAtLeast(2000000));
+        assertEquals("Must be exact values", "[bigger=3000000, big=2000000, happy=3]", ss.getTopKeywords(3).toString());
+        assertEquals("Must be exact values", "[happy=3, to=2]", ss.getPage(2, 2).toString());
+    }
+
+    @Test
+    public void testRankQueriesMatchSorting(){
+
+        ss.enableScoreIndex();
+
+        // Counts high enough to grow the index several times
+        Map<String, Integer> counts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 50000; ++i) {
+            String word = "w" + (int) Math.abs(random.nextGaussian() * 20);
+            ss.inputSearchTerm(word);
+            counts.merge(word, 1, Integer::sum);
+        }
+
+        // Sort the counts as the reference
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        // The same counts in the same order, and the same keywords of each count
+        List<Map.Entry<String, Integer>> page = ss.getPage(0, Integer.MAX_VALUE);
+        assertEquals("Must be exact values", valuesOf(sorted), valuesOf(page));
+        List<Map.Entry<String, Integer>> resorted = new ArrayList<>(page);
+        resorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        assertEquals("Must be exact values", sorted, resorted);
+
+        // Each page is a slice of the whole list
+        assertEquals("Must be exact values", page.subList(10, 15), ss.getPage(10, 5));
+        assertEquals("Must be exact values", page.subList(page.size() - 3, page.size()), ss.getPage(page.size() - 3, 10));
+        for (Map.Entry<String, Integer> entry : sorted) {
+            int higher = 0, atLeast = 0;
+            for (int count : counts.values()) {
+                higher += count > entry.getValue() ? 1 : 0;
+                atLeast += count >= entry.getValue() ? 1 : 0;
+            }
+            assertEquals("Must be exact values", higher + 1, ss.getRank(entry.getKey()));
+            assertEquals("Must be exact values", atLeast, ss.countAtLeast(entry.getValue()));
+        }
+    }
+
+    @Test
+    public void testRankQueriesWhileCounting() throws InterruptedException {
+
+        ss.enableScoreIndex();
+
+        // Count from several threads while paging deep into the index
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; ++i) {
+                    ss.inputSearchTerm("w" + (i % 5000));
+                }
+            });
+            threads[t].start();
+        }
+        while(threads[0].isAlive()){
+            ss.getPage(2500, 10);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // The index is consistent with the storage once the counting stops
+        assertEquals("Must be exact values", 5000, ss.countAtLeast(1));
+        assertEquals("Must be exact values", 5000, ss.countAtLeast(16));
+        assertEquals("Must be exact values", 0, ss.countAtLeast(17));
+        List<Map.Entry<String, Integer>> page = ss.getPage(0, Integer.MAX_VALUE);
+        assertEquals("Must be exact values", 5000, page.size());
+        assertEquals("Must be exact values", 5000, new HashSet<>(page).size());
+        assertEquals("Must be exact values", Collections.nCopies(5000, 16), valuesOf(page));
+    }
+
+    @Test
+    public void testEnableWhileCounting() throws InterruptedException {
+
+        // Count from several threads while the index and the decay are enabled
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; ++i) {
+                    ss.inputSearchTerm("w" + (i % 5000));
+                }
+            });
+            threads[t].start();
+        }
+        while(ss.size() < 2500){
+            Thread.yield();
+        }
+        ss.enableScoreIndex();
+        ss.enableDecay(3600000, 0, 0, System::currentTimeMillis, false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every keyword is indexed at its count and has a decayed score, whenever it was counted
+        assertEquals("Must be exact values", 5000, ss.countAtLeast(16));
+        assertEquals("Must be exact values", 0, ss.countAtLeast(17));
+        assertEquals("Must be exact values", Collections.nCopies(5000, 16), valuesOf(ss.getPage(0, Integer.MAX_VALUE)));
+        assertEquals("Must be exact values", 5000, ss.getTrending(Integer.MAX_VALUE).size());
+        for (Map.Entry<String, Double> entry : ss.getTrending(Integer.MAX_VALUE)) {
+            assertEquals("Must be exact values", 16.0, entry.getValue(), 0.01);
+        }
+    }
+
+    @Test
+    public void testMergeCountRemovesAtZero(){
+
+        ss.mergeCount("Neg", 2);
+        ss.mergeCount("neg", -2);
+        ss.mergeCount("absent", -3);
+        assertEquals("Must be empty", "[]", ss.getAllKeysSorted().toString());
+
+        // The same with the index
+        ss.enableScoreIndex();
+        ss.mergeCount("Neg", 2);
+        ss.mergeCount("neg", -5);
+        assertEquals("Must be empty", "[]", ss.getAllKeysSorted().toString());
+        assertEquals("Must be exact values", 0, ss.countAtLeast(1));
+    }
+
+    @Test
+    public void testDecay(){
+
+        AtomicLong clock = new AtomicLong(1000000);
+        ss.enableDecay(1000, 0.1, 0, clock::get, false);
+
+        try {
+            ss.inputSearchTerm("Happy Happy Happy Happy");
+            assertEquals("Must be exact values", 4.0, ss.getDecayedScore("happy"), 1e-9);
+
+            // The old keyword has halved twice when the new one trends
+            clock.addAndGet(2000);
+            ss.inputSearchTerm("Birthday Birthday");
+            assertEquals("Must be exact values", 1.0, ss.getDecayedScore("HAPPY"), 1e-9);
+            assertEquals("Must be exact values", "birthday", ss.getHighestOccurance());
+            assertEquals("Must be exact values", "birthday", ss.getTrending(2).get(0).getKey());
+
+            // The raw counts are kept until the keyword expires
+            assertTrue("Must be true", ss.exists("happy"));
+            assertEquals("Must be exact values", "[birthday, happy]", ss.getAllKeysSorted().toString());
+
+            // happy falls below the floor after about 5.3 half-lives, birthday after about 4.3 half-lives from its count
+            clock.addAndGet(3000);
+            assertEquals("Must be exact values", 0, ss.expireDecayed());
+            clock.addAndGet(1000);
+            assertEquals("Must be exact values", 1, ss.expireDecayed());
+            assertEquals("Must be exact values", "{birthday=2}", ss.toString());
+
+            // Counting again postpones the expiry
+            ss.inputSearchTerm("Birthday");
+            clock.addAndGet(2500);
+            assertEquals("Must be exact values", 0, ss.expireDecayed());
+            clock.addAndGet(10000);
+            assertEquals("Must be exact values", 1, ss.expireDecayed());
+            assertEquals("Must be empty", "{}", ss.toString());
+        }
+        finally {
+            ss.disableDecay();
+        }
+    }
+
+    @Test
+    public void testDecayTTLAndLandmark(){
+
+        AtomicLong clock = new AtomicLong(0);
+        ss.enableDecay(10, 0, 5000, clock::get, false);
+
+        try {
+            ss.inputSearchTerm("Happy");
+
+            // Many half-lives later, the landmark has moved and the scores are still exact
+            for (int i = 0; i < 4; ++i) {
+                clock.addAndGet(1000);
+                ss.inputSearchTerm("Birthday");
+            }
+            assertEquals("Must be exact values", 1.0, ss.getDecayedScore("birthday"), 1e-9);
+            assertEquals("Must be exact values", 0.0, ss.getDecayedScore("happy"), 1e-9);
+
+            // Only the keyword not seen for the TTL expires
+            clock.addAndGet(2000);
+            assertEquals("Must be exact values", 1, ss.expireDecayed());
+            assertEquals("Must be exact values", "{birthday=4}", ss.toString());
+        }
+        finally {
+            ss.disableDecay();
+        }
+    }
+
+    @Test
+    public void testDecayRemovalPaths(){
+
+        AtomicLong clock = new AtomicLong(0);
+        ss.enableDecay(1000, 0.1, 0, clock::get, false);
+
+        try {
+            ss.inputSearchTerm("Happy Birthday Birthday");
+
+            // A cleaned keyword loses its decayed score too
+            assertEquals("Must be exact values", 1, ss.cleanLowScores(2));
+            assertEquals("Must be exact values", 0.0, ss.getDecayedScore("happy"), 1e-9);
+            assertEquals("Must be exact values", "[birthday=2.0]", ss.getTrending(5).toString());
+
+            // Counted again, it's not expired by the expiry queued before the cleaning, due after about 3.3 half-lives
+            clock.set(3000);
+            ss.inputSearchTerm("Happy");
+            clock.set(3500);
+            assertEquals("Must be exact values", 0, ss.expireDecayed());
+            assertTrue("Must be true", ss.exists("happy"));
+
+            // A keyword merged down to 0 loses its decayed score too
+            ss.enableScoreIndex();
+            ss.mergeCount("Birthday", -2);
+            assertFalse("Must be false", ss.exists("birthday"));
+            assertEquals("Must be exact values", 0.0, ss.getDecayedScore("birthday"), 1e-9);
+            assertEquals("Must be exact values", 1, ss.getTrending(5).size());
+
+            // Its queued expiry is a no-op
+            clock.set(5000);
+            assertEquals("Must be exact values", 0, ss.expireDecayed());
+            assertEquals("Must be exact values", "{happy=1}", ss.toString());
+        }
+        finally {
+            ss.disableDecay();
+        }
+    }
+
+    @Test
+    public void testTrendingOrder(){
+
+        AtomicLong clock = new AtomicLong(0);
+        ss.enableDecay(10, 0, 0, clock::get, false);
+
+        try {
+            // Count the keywords at different times, moving the landmark several times
+            Random random = new Random(7);
+            for (int i = 0; i < 3000; ++i) {
+                clock.addAndGet(random.nextInt(3));
+                ss.inputSearchTerm("w" + random.nextInt(500));
+            }
+
+            // The ordered view agrees with the scores of all the keywords
+            List<Double> scores = new ArrayList<>();
+            for (Object key : ss.getAllKeysSorted()) {
+                scores.add(ss.getDecayedScore((String) key));
+            }
+            scores.sort(Collections.reverseOrder());
+
+            List<Map.Entry<String, Double>> top = ss.getTrending(20);
+            assertEquals("Must be exact values", 20, top.size());
+            for (int i = 0; i < top.size(); ++i) {
+                assertEquals("Must be exact values", scores.get(i), top.get(i).getValue(), 1e-9 * scores.get(i));
+                assertEquals("Must be exact values", top.get(i).getValue(), ss.getDecayedScore(top.get(i).getKey()), 0.0);
+            }
+            assertEquals("Must be exact values", top.get(0).getKey(), ss.getHighestOccurance());
+            assertEquals("Must be exact values", scores.size(), ss.getTrending(Integer.MAX_VALUE).size());
+        }
+        finally {
+            ss.disableDecay();
+        }
+    }
+
+    @Test
+    public void testDecayedScoreWhileRebased() throws InterruptedException {
+
+        // A half-life of 1 ms moves the landmark every 58 ms, rebasing the entries while they are read
+        ss.enableDecay(1, 0, 0, System::currentTimeMillis, false);
+
+        try {
+            long until = System.currentTimeMillis() + 500;
+            Thread writer = new Thread(() -> {
+                while(System.currentTimeMillis() < until){
+                    ss.inputSearchTerm("happy");
+                }
+            });
+            writer.start();
+
+            // A score read from a rebased value with the landmark before, or the reverse, would be far off the count
+            while(writer.isAlive()){
+                double score = ss.getDecayedScore("happy");
+                List<Map.Entry<String, Double>> top = ss.getTrending(1);
+                int count = ss.getTopKeywords(1).isEmpty() ? 0 : ss.getTopKeywords(1).get(0).getValue();
+                assertTrue("Must be true", score >= 0 && score <= count + 1e-6 * count);
+                assertTrue("Must be true", top.isEmpty() || top.get(0).getValue() <= count + 1e-6 * count);
+            }
+            writer.join();
+        }
+        finally {
+            ss.disableDecay();
+        }
+    }
+
     public static void main(String[] args) {
 
         // Run test cases
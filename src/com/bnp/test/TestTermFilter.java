@@ -0,0 +1,207 @@
+package com.bnp.test;
+
+import com.bnp.filter.BloomFilter;
+import com.bnp.filter.CompactTermSet;
+import com.bnp.filter.TermFilter;
+import com.bnp.scorereporter.ScoreReporter;
+import com.bnp.searchscorersingleton.SearchScorerSingleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test class for the TermFilter class
+ */
+public class TestTermFilter {
+
+    /**
+     * The Singleton Class to filter the input of
+     */
+    private SearchScorerSingleton ss = SearchScorerSingleton.getInstance();
+
+    private File denyFile, allowFile;
+
+    @Before
+    public void runBefore() throws IOException {
+        ss.clear();
+        denyFile = File.createTempFile("deny", ".txt");
+        allowFile = File.createTempFile("allow", ".txt");
+        writeTerms(denyFile, "# stopwords", "The", "of", "badword");
+        writeTerms(allowFile);
+    }
+
+    @After
+    public void runAfter(){
+        ss.setTermFilter(null);
+        ss.disableNGrams();
+        denyFile.delete();
+        allowFile.delete();
+    }
+
+    private static void writeTerms(File file, String... terms) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            for (String term : terms) {
+                writer.append(term).append('\n');
+            }
+        }
+    }
+
+    @Test
+    public void testBloomFilter(){
+
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 100000; ++i) {
+            terms.add("term" + i);
+        }
+        BloomFilter bf = new BloomFilter(terms);
+
+        // No false negatives
+        for (String term : terms) {
+            assertTrue("Must be true", bf.mightContain(term));
+        }
+
+        // Few false positives
+        int hits = 0;
+        for (int i = 0; i < 100000; ++i) {
+            if(bf.mightContain("other" + i)){
+                ++hits;
+            }
+        }
+        assertTrue("Must be less than 2%", hits < 2000);
+    }
+
+    @Test
+    public void testCompactTermSet(){
+
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 100000; ++i) {
+            terms.add("term" + i);
+        }
+        terms.addAll(Arrays.asList("term1", "term2", "\u751f\u65e5", ""));
+        CompactTermSet set = new CompactTermSet(terms);
+
+        // Exact, and the duplicates are kept once
+        for (String term : terms) {
+            assertTrue("Must be true", set.contains(term));
+        }
+        for (int i = 0; i < 100000; ++i) {
+            assertFalse("Must be false", set.contains("other" + i));
+        }
+        assertFalse("Must be false", set.contains("term"));
+        assertFalse("Must be false", set.contains("\u751f"));
+        assertEquals("Must be exact values", 100002, set.size());
+
+        // Far smaller than a HashSet of the terms
+        assertTrue("Must be less than 25 bytes per term", set.sizeInBytes() < 25L * set.size());
+
+        assertFalse("Must be false", new CompactTermSet(Collections.emptyList()).contains("term1"));
+
+        // The chars are compared to the UTF-8 bytes of 1 to 4 bytes per code point
+        CompactTermSet utf8 = new CompactTermSet(Arrays.asList("caf\u00e9", "\u751f\u65e5", "smile\uD83D\uDE00"));
+        assertTrue("Must be true", utf8.contains("caf\u00e9"));
+        assertTrue("Must be true", utf8.contains("smile\uD83D\uDE00"));
+        assertTrue("Must be true", utf8.contains("\u751f\u65e5", BloomFilter.hash64("\u751f\u65e5")));
+        assertFalse("Must be false", utf8.contains("cafe"));
+        assertFalse("Must be false", utf8.contains("caf\u00e8"));
+        assertFalse("Must be false", utf8.contains("smile\uD83D\uDE01"));
+        assertFalse("Must be false", utf8.contains("smile\uD83D"));
+    }
+
+    @Test
+    public void testInputSearchTerm(){
+
+        ss.setTermFilter(new TermFilter(denyFile.getPath(), allowFile.getPath()));
+
+        ss.inputSearchTerm("The Birthday of THE badword Happy");
+        assertEquals("Must be exact values", "{birthday=1, happy=1}", ss.toString());
+    }
+
+    @Test
+    public void testPhrasesBreakAtDroppedKeywords(){
+
+        ss.setTermFilter(new TermFilter(denyFile.getPath(), allowFile.getPath()));
+        ss.enableNGrams(3, 1);
+
+        // "of" is dropped, so "birthday happy" is not a phrase
+        ss.inputSearchTerm("Happy Birthday of happy  days");
+        Map<String, Long> phrases = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : ss.getTopPhrases(10)) {
+            phrases.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals("Must be exact values", "{happy birthday=1, happy days=1}", phrases.toString());
+    }
+
+    @Test
+    public void testReload() throws IOException {
+
+        TermFilter filter = new TermFilter(denyFile.getPath(), allowFile.getPath());
+        assertFalse("Must be false", filter.accepts("the"));
+        assertTrue("Must be true", filter.accepts("happy"));
+
+        // The allow list overrides the deny list, and the new deny list replaces the old one
+        writeTerms(denyFile, "the", "happy");
+        writeTerms(allowFile, "the");
+        filter.reload();
+        assertTrue("Must be true", filter.accepts("the"));
+        assertTrue("Must be true", filter.accepts("of"));
+        assertFalse("Must be false", filter.accepts("happy"));
+
+        // An unreadable list keeps the previous terms
+        denyFile.delete();
+        filter.reload();
+        assertFalse("Must be false", filter.accepts("happy"));
+    }
+
+    @Test
+    public void testInstallFromConfig() throws IOException {
+
+        // The lists are read from the files configured
+        writeTerms(allowFile, "the");
+        File configFile = File.createTempFile("config", ".csv");
+        writeTerms(configFile, "DIR,.", "DenyList," + denyFile.getPath(), "AllowList," + allowFile.getPath());
+        try {
+            new ScoreReporter(configFile.getPath(), ss).installTermFilter();
+            ss.inputSearchTerm("The Birthday of THE badword Happy");
+            assertEquals("Must be exact values", "[birthday, happy, the]", ss.getAllKeysSorted().toString());
+            assertFalse("Must be false", ss.exists("of"));
+
+            // No list is used if configured as NONE
+            ss.clear();
+            writeTerms(configFile, "DIR,.", "DenyList,NONE");
+            new ScoreReporter(configFile.getPath(), ss).installTermFilter();
+            ss.inputSearchTerm("The Birthday of");
+            assertEquals("Must be exact values", "[birthday, of, the]", ss.getAllKeysSorted().toString());
+        } finally {
+            configFile.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+
+        // Run test cases
+        Result result = JUnitCore.runClasses(TestTermFilter.class);
+
+        // Print test results
+        for (Failure failure : result.getFailures()) {
+            System.out.println(failure.toString());
+        }
+
+        System.out.println(result.wasSuccessful());
+    }
+}